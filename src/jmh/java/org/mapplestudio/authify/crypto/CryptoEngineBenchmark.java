@@ -0,0 +1,88 @@
+package org.mapplestudio.authify.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Per-handshake RSA and SHA-1 cost. {@code perCallInstances} is how every handshake used to do it
+ * (fresh Cipher and MessageDigest, one init per decryption); {@code engine} is {@link CryptoEngine}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CryptoEngineBenchmark {
+    @Param({"1024", "2048"})
+    public int keySize;
+
+    private CryptoEngine engine;
+    private CryptoEngine.Keys keys;
+    private byte[] encryptedSecret;
+    private byte[] encryptedToken;
+    private SecretKey secretKey;
+
+    @Setup
+    public void setup() throws Exception {
+        engine = new CryptoEngine(Logger.getLogger("AuthifyBenchmark"), null, keySize, 0);
+        keys = engine.getKeys();
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        secretKey = new SecretKeySpec(secret, "AES");
+
+        // What the client sends: the shared secret and verify token, encrypted with our public key
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, keys.keyPair().getPublic());
+        encryptedSecret = cipher.doFinal(secret);
+        encryptedToken = cipher.doFinal(engine.generateVerifyToken());
+    }
+
+    @Benchmark
+    public String engine() throws Exception {
+        CryptoEngine.Decrypted decrypted = engine.decrypt(keys, encryptedSecret, encryptedToken);
+        return engine.serverId(keys, decrypted.sharedSecret());
+    }
+
+    @Benchmark
+    public String perCallInstances() throws Exception {
+        PrivateKey privateKey = keys.keyPair().getPrivate();
+        Cipher secretCipher = Cipher.getInstance("RSA");
+        secretCipher.init(Cipher.DECRYPT_MODE, privateKey);
+        SecretKey shared = new SecretKeySpec(secretCipher.doFinal(encryptedSecret), "AES");
+        Cipher tokenCipher = Cipher.getInstance("RSA");
+        tokenCipher.init(Cipher.DECRYPT_MODE, privateKey);
+        tokenCipher.doFinal(encryptedToken);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        digest.update("".getBytes(StandardCharsets.ISO_8859_1));
+        digest.update(shared.getEncoded());
+        digest.update(keys.keyPair().getPublic().getEncoded());
+        return new BigInteger(digest.digest()).toString(16);
+    }
+
+    @Benchmark
+    public String serverId() {
+        return engine.serverId(keys, secretKey);
+    }
+}
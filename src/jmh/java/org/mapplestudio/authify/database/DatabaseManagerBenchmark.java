@@ -0,0 +1,90 @@
+package org.mapplestudio.authify.database;
+
+import org.bukkit.configuration.MemoryConfiguration;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * {@link DatabaseManager} against a throwaway SQLite file. Uncached lookups go through the executor
+ * and the pool; registrations go through the write-behind queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseManagerBenchmark {
+    private static final int USERS = 10_000;
+
+    private File dataFolder;
+    private BoundedExecutor executor;
+    private DatabaseManager databaseManager;
+    private final AtomicLong registrations = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataFolder = Files.createTempDirectory("authify-bench").toFile();
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("database.type", "sqlite");
+        executor = new BoundedExecutor("bench-db", 4, 1024, false);
+        databaseManager = new DatabaseManager(config, dataFolder, Logger.getLogger("AuthifyBenchmark"), executor);
+
+        CompletableFuture<?>[] pending = new CompletableFuture<?>[USERS];
+        for (int i = 0; i < USERS; i++) {
+            pending[i] = databaseManager.registerUser(UUID.randomUUID(), "user" + i, "$2a$10$hash", "127.0.0.1");
+        }
+        CompletableFuture.allOf(pending).join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        databaseManager.close();
+        executor.shutdown(5000);
+        try (var files = Files.walk(dataFolder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public UserRecord reloadUser() {
+        return databaseManager.reloadUser("user" + ThreadLocalRandom.current().nextInt(USERS)).join();
+    }
+
+    @Benchmark
+    public UserRecord reloadMissingUser() {
+        return databaseManager.reloadUser("nobody" + ThreadLocalRandom.current().nextInt(USERS)).join();
+    }
+
+    @Benchmark
+    public Boolean isPremiumCached() {
+        return databaseManager.isPremium("user" + ThreadLocalRandom.current().nextInt(USERS)).join();
+    }
+
+    @Benchmark
+    public Boolean registerUser() {
+        long n = registrations.incrementAndGet();
+        return databaseManager.registerUser(UUID.randomUUID(), "bench" + n, "$2a$10$hash", "127.0.0.1").join();
+    }
+}
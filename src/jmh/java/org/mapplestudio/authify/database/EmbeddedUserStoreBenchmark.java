@@ -0,0 +1,88 @@
+package org.mapplestudio.authify.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * {@link EmbeddedUserStore} lookups (in-memory) and appends, plus the time to replay the log on startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddedUserStoreBenchmark {
+    private static final int USERS = 100_000;
+
+    private Path dataFolder;
+    private Path logFile;
+    private EmbeddedUserStore store;
+    private final AtomicLong registrations = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dataFolder = Files.createTempDirectory("authify-bench");
+        logFile = dataFolder.resolve("users.log");
+        store = new EmbeddedUserStore(logFile, Logger.getLogger("AuthifyBenchmark"), 1000, 2.0);
+        for (int i = 0; i < USERS; i++) {
+            store.registerUser(UUID.randomUUID(), "user" + i, "$2a$10$hash", "127.0.0.1").join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        store.close();
+        try (var files = Files.walk(dataFolder)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Boolean isPremium() {
+        return store.isPremium("user" + ThreadLocalRandom.current().nextInt(USERS)).join();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String getPasswordHash() {
+        return store.getPasswordHash("user" + ThreadLocalRandom.current().nextInt(USERS)).join();
+    }
+
+    @Benchmark
+    public Boolean registerUser() {
+        return store.registerUser(UUID.randomUUID(), "new" + registrations.incrementAndGet(), "$2a$10$hash", "127.0.0.1").join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int replay() {
+        EmbeddedUserStore reopened = new EmbeddedUserStore(logFile, Logger.getLogger("AuthifyBenchmark"), 1000, 2.0);
+        int users = reopened.getUserCount();
+        reopened.close();
+        return users;
+    }
+}
@@ -0,0 +1,44 @@
+package org.mapplestudio.authify.hashing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one /login password check at each BCrypt cost we might run with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+    @Param({"10", "11", "12", "13"})
+    public int cost;
+
+    private PasswordHasher hasher;
+    private String hash;
+    private final char[] password = "correct horse battery staple".toCharArray();
+
+    @Setup
+    public void setup() {
+        hasher = new BCryptHasher(cost);
+        hash = hasher.hash(password);
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return hasher.verify(password, hash);
+    }
+}
@@ -0,0 +1,381 @@
+package org.mapplestudio.authify.listeners;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.configuration.MemoryConfiguration;
+import org.mapplestudio.authify.audit.AuditLog;
+import org.mapplestudio.authify.audit.FileAuditSink;
+import org.mapplestudio.authify.crypto.CryptoEngine;
+import org.mapplestudio.authify.database.DatabaseManager;
+import org.mapplestudio.authify.database.UserRecord;
+import org.mapplestudio.authify.managers.AuthManager;
+import org.mapplestudio.authify.managers.LocalSessionStore;
+import org.mapplestudio.authify.managers.LoginAdmissionController;
+import org.mapplestudio.authify.metrics.LatencyHistogram;
+import org.mapplestudio.authify.metrics.MetricsRegistry;
+import org.mapplestudio.authify.mojang.MojangHttpClient;
+import org.mapplestudio.authify.mojang.MojangProfileChecker;
+import org.mapplestudio.authify.mojang.MojangSessionService;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+import org.mapplestudio.authify.utils.CircuitBreaker;
+
+import javax.crypto.Cipher;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Offline login-storm test: thousands of simulated clients run the whole pre-login flow through a
+ * {@link LoginHandshakeHandler} at once, against a throwaway SQLite database and a local stub of the
+ * Mojang profile API and sessionserver. Premium clients really RSA-encrypt their shared secret and
+ * verify token, so the decrypt path costs what it costs in production.
+ * <p>
+ * Reports end-to-end latency (LoginStart received to LoginStart released or kick), throughput, peak
+ * heap, the handler's per-stage histograms, and any state left behind once every client is done.
+ * Exits with status 1 if something leaked or a client never finished.
+ * <pre>
+ * mvn -P benchmark test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.mapplestudio.authify.listeners.LoginStormHarness \
+ *     -Dexec.args="--connections 5000 --ramp-ms 2000 --mojang-latency-ms 80"
+ * </pre>
+ * Options: {@code --connections}, {@code --ramp-ms} (arrivals spread evenly over this window),
+ * {@code --premium-percent}, {@code --registered-percent} (cracked clients already in the database),
+ * {@code --mojang-latency-ms}, {@code --mojang-error-percent}, {@code --client-rtt-ms},
+ * {@code --network-threads}, {@code --crypto-threads}, {@code --max-concurrent}, {@code --max-queued}.
+ */
+public final class LoginStormHarness {
+    private static final Logger LOGGER = Logger.getLogger("LoginStorm");
+
+    private final Map<String, String> options;
+    private final int connections;
+    private final long rampMillis;
+    private final int premiumPercent;
+    private final int registeredPercent;
+    private final long mojangLatencyMillis;
+    private final int mojangErrorPercent;
+    private final long clientRttMillis;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private CountDownLatch finished;
+    private ExecutorService network;
+    private ScheduledExecutorService clientTimer;
+    private LoginHandshakeHandler handler;
+
+    private LoginStormHarness(Map<String, String> options) {
+        this.options = options;
+        this.connections = option("connections", 5000);
+        this.rampMillis = option("ramp-ms", 2000);
+        this.premiumPercent = option("premium-percent", 30);
+        this.registeredPercent = option("registered-percent", 40);
+        this.mojangLatencyMillis = option("mojang-latency-ms", 80);
+        this.mojangErrorPercent = option("mojang-error-percent", 0);
+        this.clientRttMillis = option("client-rtt-ms", 40);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        System.exit(new LoginStormHarness(options).run() ? 0 : 1);
+    }
+
+    private int option(String name, int fallback) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(fallback)));
+    }
+
+    private boolean run() throws Exception {
+        File dataFolder = Files.createTempDirectory("authify-storm").toFile();
+        ScheduledExecutorService mojangTimer = Executors.newScheduledThreadPool(2);
+        HttpServer mojang = startStubMojang(mojangTimer);
+        String baseUrl = "http://127.0.0.1:" + mojang.getAddress().getPort();
+
+        MemoryConfiguration config = new MemoryConfiguration();
+        config.set("database.type", "sqlite");
+        config.set("login-queue.handshake-timeout-seconds", 30);
+        BoundedExecutor dbExecutor = new BoundedExecutor("storm-db", 4, 4096, false);
+        BoundedExecutor httpExecutor = new BoundedExecutor("storm-http", 4, 4096, false);
+        BoundedExecutor cryptoExecutor = new BoundedExecutor("storm-crypto", option("crypto-threads", 2), 1024, false);
+        DatabaseManager userStore = new DatabaseManager(config, dataFolder, LOGGER, dbExecutor);
+        AuthManager authManager = new AuthManager(new LocalSessionStore(connections * 2), 5 * 60_000L, 12 * 3_600_000L);
+        MojangHttpClient httpClient = new MojangHttpClient(2000, 5000);
+        MojangProfileChecker profileChecker = new MojangProfileChecker(LOGGER, httpClient, baseUrl + "/profile/",
+                connections * 2, 3_600_000L, 300_000L, 60_000L, 168 * 3_600_000L, breaker("profile API"));
+        MojangSessionService sessionService = new MojangSessionService(LOGGER, httpClient, httpExecutor,
+                baseUrl + "/hasJoined", breaker("session server"));
+        LoginAdmissionController admission = new LoginAdmissionController(option("max-concurrent", 64),
+                option("max-queued", 2000), 3);
+        CryptoEngine cryptoEngine = new CryptoEngine(LOGGER, new File(dataFolder, "keys.bin").toPath(), 1024, 0);
+        MetricsRegistry metrics = new MetricsRegistry();
+        AuditLog auditLog = new AuditLog(LOGGER, new FileAuditSink(new File(dataFolder, "audit").toPath(), 16L << 20, 30),
+                8192, AuditLog.Overflow.DROP, 5, 512, 1000);
+        handler = new LoginHandshakeHandler(config, LOGGER, userStore, authManager, profileChecker, sessionService,
+                admission, cryptoEngine, cryptoExecutor, auditLog, metrics);
+
+        List<Client> clients = createClients();
+        seedDatabase(userStore, clients);
+
+        network = Executors.newFixedThreadPool(option("network-threads", 4));
+        clientTimer = Executors.newScheduledThreadPool(2);
+        finished = new CountDownLatch(clients.size());
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        peakHeap.set(baselineHeap);
+        ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor();
+        heapSampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 10, TimeUnit.MILLISECONDS);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < clients.size(); i++) {
+            Client client = clients.get(i);
+            long arrival = rampMillis * 1000 * i / clients.size();
+            clientTimer.schedule(() -> network.execute(client::connect), arrival, TimeUnit.MICROSECONDS);
+        }
+        boolean complete = finished.await(rampMillis + 60_000, TimeUnit.MILLISECONDS);
+        double wallSeconds = (System.nanoTime() - started) / 1e9;
+        heapSampler.shutdownNow();
+
+        // Let the last completion callbacks unwind before looking for leftovers
+        Thread.sleep(500);
+        long premiumPassed = clients.stream().filter(c -> c.premium && "passed".equals(c.outcome)).count();
+        Map<String, Long> leftovers = new TreeMap<>();
+        leftovers.put("handshakes", (long) handler.getHandshakeCount());
+        leftovers.put("admission active", (long) admission.getActiveCount());
+        leftovers.put("admission queued", (long) admission.getQueuedCount());
+        leftovers.put("profile lookups in flight", (long) profileChecker.getInFlightCount());
+        leftovers.put("sessions beyond premium logins", authManager.getSessionCount() - premiumPassed);
+
+        report(clients, complete, wallSeconds, baselineHeap, metrics, leftovers);
+        auditLog.close(5000);
+        System.out.println("  audit events: " + auditLog.getRecordedCount() + " recorded, " + auditLog.getWrittenCount()
+                + " written, " + auditLog.getDroppedCount() + " dropped");
+
+        handler.shutdown();
+        network.shutdownNow();
+        clientTimer.shutdownNow();
+        mojang.stop(0);
+        mojangTimer.shutdownNow();
+        cryptoEngine.shutdown();
+        userStore.close();
+        dbExecutor.shutdown(1000);
+        httpExecutor.shutdown(1000);
+        cryptoExecutor.shutdown(1000);
+        try (var files = Files.walk(dataFolder.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+        return complete && leftovers.values().stream().allMatch(v -> v == 0);
+    }
+
+    private static CircuitBreaker breaker(String name) {
+        return new CircuitBreaker(name, LOGGER, 50, 10, 0.5, 2000, 0.8, 30_000, 3);
+    }
+
+    /**
+     * Premium clients are half known to the database already and half found through the profile
+     * API; cracked clients are either registered or brand new.
+     */
+    private List<Client> createClients() throws IOException {
+        List<Client> clients = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            int roll = ThreadLocalRandom.current().nextInt(100);
+            String name;
+            if (roll < premiumPercent) {
+                name = (i % 2 == 0 ? "Known" : "Premium") + i;
+            } else if (roll < premiumPercent + registeredPercent) {
+                name = "Cracked" + i;
+            } else {
+                name = "Guest" + i;
+            }
+            // Distinct addresses, so the per-IP queue limit never kicks in
+            byte[] ip = {10, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+            clients.add(new Client(name, new InetSocketAddress(InetAddress.getByAddress(ip), 20000 + i % 40000)));
+        }
+        return clients;
+    }
+
+    private static void seedDatabase(DatabaseManager userStore, List<Client> clients) {
+        List<UserRecord> rows = new ArrayList<>();
+        for (Client client : clients) {
+            if (client.username.startsWith("Known") || client.username.startsWith("Cracked")) {
+                boolean premium = client.username.startsWith("Known");
+                rows.add(new UserRecord(UUID.randomUUID(), client.username, premium ? null : "$2a$10$hash", premium, "127.0.0.1"));
+            }
+        }
+        userStore.importUsers(rows).join();
+    }
+
+    private HttpServer startStubMojang(ScheduledExecutorService timer) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4096);
+        server.createContext("/profile/", exchange -> {
+            String name = exchange.getRequestURI().getPath().substring("/profile/".length());
+            respondLater(timer, exchange, isPremiumName(name) ? 200 : 204,
+                    "{\"id\":\"" + uuidHex(name) + "\",\"name\":\"" + name + "\"}");
+        });
+        server.createContext("/hasJoined", exchange -> {
+            String name = "";
+            for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+                if (parameter.startsWith("username=")) {
+                    name = URLDecoder.decode(parameter.substring(9), StandardCharsets.UTF_8);
+                }
+            }
+            respondLater(timer, exchange, isPremiumName(name) ? 200 : 204,
+                    "{\"id\":\"" + uuidHex(name) + "\",\"name\":\"" + name + "\",\"properties\":[]}");
+        });
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+        return server;
+    }
+
+    private void respondLater(ScheduledExecutorService timer, HttpExchange exchange, int status, String body) {
+        long jitter = mojangLatencyMillis > 0 ? ThreadLocalRandom.current().nextLong(mojangLatencyMillis / 4 + 1) : 0;
+        int code = ThreadLocalRandom.current().nextInt(100) < mojangErrorPercent ? 503 : status;
+        timer.schedule(() -> {
+            try (exchange) {
+                byte[] bytes = code == 200 ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+                exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+                if (bytes.length > 0) {
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(bytes);
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Stub response failed", e);
+            }
+        }, mojangLatencyMillis + jitter, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isPremiumName(String name) {
+        return name.startsWith("Premium") || name.startsWith("Known");
+    }
+
+    private static String uuidHex(String name) {
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+    }
+
+    private void report(List<Client> clients, boolean complete, double wallSeconds, long baselineHeap,
+                        MetricsRegistry metrics, Map<String, Long> leftovers) {
+        long premium = clients.stream().filter(c -> c.premium).count();
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf(Locale.ROOT, "%nLogin storm: %d connections over %d ms (%d premium, %d%% registered cracked), "
+                        + "Mojang stub %d ms, %d%% errors%n",
+                clients.size(), rampMillis, premium, registeredPercent, mojangLatencyMillis, mojangErrorPercent);
+        System.out.println("  outcomes: " + new TreeMap<>(outcomes) + (complete ? "" : "  INCOMPLETE: "
+                + finished.getCount() + " clients never finished"));
+        System.out.printf(Locale.ROOT, "  latency ms: p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n",
+                snapshot.getValueAtQuantile(0.5) / 1000.0, snapshot.getValueAtQuantile(0.99) / 1000.0,
+                snapshot.getValueAtQuantile(0.999) / 1000.0, snapshot.getMaxMicros() / 1000.0);
+        System.out.printf(Locale.ROOT, "  throughput: %.0f logins/s (%.2f s wall)%n", snapshot.getCount() / wallSeconds, wallSeconds);
+        System.out.printf(Locale.ROOT, "  heap: %.1f MB before, %.1f MB peak%n",
+                baselineHeap / 1048576.0, peakHeap.get() / 1048576.0);
+        for (MetricsRegistry.Histogram histogram : metrics.getHistograms()) {
+            LatencyHistogram.Snapshot stage = histogram.histogram().snapshot();
+            System.out.printf(Locale.ROOT, "  %-38s n=%-6d p50 %8.2f ms  p99 %8.2f ms%n", histogram.name(), stage.getCount(),
+                    stage.getValueAtQuantile(0.5) / 1000.0, stage.getValueAtQuantile(0.99) / 1000.0);
+        }
+        leftovers.forEach((name, count) -> System.out.println("  leftover " + name + ": " + count + (count != 0 ? "  LEAK" : "")));
+    }
+
+    /**
+     * One simulated client. The handler's calls come in on whichever thread it uses; the client's
+     * own packets go out on the shared network pool, like Netty's event loops.
+     */
+    private final class Client implements LoginConnection {
+        private final String username;
+        private final InetSocketAddress address;
+        private final boolean premium;
+        private volatile long connectedAt;
+        private volatile String outcome;
+
+        private Client(String username, InetSocketAddress address) {
+            this.username = username;
+            this.address = address;
+            this.premium = isPremiumName(username);
+        }
+
+        private void connect() {
+            connectedAt = System.nanoTime();
+            UUID offline = UUID.nameUUIDFromBytes(("OfflinePlayer:" + username).getBytes(StandardCharsets.UTF_8));
+            if (!handler.onLoginStart(this, username, offline)) {
+                done("not held");
+            }
+        }
+
+        @Override
+        public InetSocketAddress getAddress() {
+            return address;
+        }
+
+        @Override
+        public void sendEncryptionRequest(byte[] encodedPublicKey, byte[] verifyToken) throws Exception {
+            PublicKey key = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encodedPublicKey));
+            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            byte[] secret = new byte[16];
+            ThreadLocalRandom.current().nextBytes(secret);
+            byte[] encryptedSecret = cipher.doFinal(secret);
+            byte[] encryptedToken = cipher.doFinal(verifyToken);
+            clientTimer.schedule(() -> network.execute(() -> handler.onEncryptionResponse(this, encryptedSecret, encryptedToken)),
+                    clientRttMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void releaseLoginStart(UUID uuid) {
+            // The server sees the re-injected packet on the network thread, like ProtocolLib's receiveClientPacket
+            network.execute(() -> {
+                if (handler.onLoginStart(this, username, uuid)) {
+                    done("held again");
+                } else {
+                    done(premium == (uuid != null) ? "passed" : "wrong mode");
+                }
+            });
+        }
+
+        @Override
+        public void kick(String message) {
+            done("kicked: " + message);
+        }
+
+        private synchronized void done(String result) {
+            if (outcome != null) {
+                outcomes.computeIfAbsent("duplicate " + result, k -> new LongAdder()).increment();
+                return;
+            }
+            outcome = result;
+            latency.recordSince(connectedAt);
+            outcomes.computeIfAbsent(result, k -> new LongAdder()).increment();
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.mapplestudio.authify.listeners;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.mapplestudio.authify.managers.AuthManager;
+import org.mapplestudio.authify.managers.LocalSessionStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-event cost of the movement restriction, with stub players.
+ * <ul>
+ *   <li>{@code sessionLookup}: what every handler used to do for every player, logged in or not.</li>
+ *   <li>{@code authenticatedPlayer}: a logged-in player while the handlers are registered because
+ *       someone else is still logging in. With nobody logging in the handlers aren't registered and
+ *       this cost is zero.</li>
+ *   <li>{@code restrictedPlayer}: a player who hasn't logged in yet, moving.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestrictionListenerBenchmark {
+    private static final int PLAYERS = 300;
+
+    private AuthManager authManager;
+    private RestrictionListener restrictions;
+    private PlayerMoveEvent authenticatedMove;
+    private PlayerMoveEvent restrictedMove;
+
+    @Setup
+    public void setup() {
+        authManager = new AuthManager(new LocalSessionStore(16), 0, 0);
+        restrictions = new RestrictionListener();
+        for (int i = 0; i < PLAYERS; i++) {
+            authManager.login(UUID.randomUUID(), false, "127.0.0.1");
+        }
+        UUID authenticated = UUID.randomUUID();
+        authManager.login(authenticated, false, "127.0.0.1");
+        UUID restricted = UUID.randomUUID();
+        restrictions.add(restricted);
+
+        Location from = new Location(null, 0, 64, 0);
+        Location to = new Location(null, 0.2, 64, 0.1);
+        authenticatedMove = new PlayerMoveEvent(stubPlayer(authenticated), from, to);
+        restrictedMove = new PlayerMoveEvent(stubPlayer(restricted), from, to);
+    }
+
+    private static Player stubPlayer(UUID uuid) {
+        return (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getUniqueId" -> uuid;
+                    case "hashCode" -> uuid.hashCode();
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+
+    @Benchmark
+    public boolean sessionLookup() {
+        return authManager.isAuthenticated(authenticatedMove.getPlayer().getUniqueId());
+    }
+
+    @Benchmark
+    public boolean authenticatedPlayer() {
+        restrictions.onMove(authenticatedMove);
+        return authenticatedMove.isCancelled();
+    }
+
+    @Benchmark
+    public boolean restrictedPlayer() {
+        restrictedMove.setCancelled(false);
+        restrictions.onMove(restrictedMove);
+        return restrictedMove.isCancelled();
+    }
+}
@@ -0,0 +1,71 @@
+package org.mapplestudio.authify.managers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AuthManager#isAuthenticated} as called from every event handler on a busy server:
+ * many readers, with logins and quits happening at the same time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthManagerBenchmark {
+    private static final int PLAYERS = 300;
+
+    private AuthManager authManager;
+    private UUID[] players;
+
+    @Setup
+    public void setup() {
+        authManager = new AuthManager(new LocalSessionStore(10_000), 5 * 60_000L, 12 * 3_600_000L);
+        players = new UUID[PLAYERS];
+        for (int i = 0; i < PLAYERS; i++) {
+            players[i] = UUID.randomUUID();
+            // Most of the server is logged in
+            if (i % 10 != 0) {
+                authManager.login(players[i], false, "127.0.0.1");
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean isAuthenticated() {
+        return authManager.isAuthenticated(players[ThreadLocalRandom.current().nextInt(PLAYERS)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(7)
+    public boolean churnReader() {
+        return authManager.isAuthenticated(players[ThreadLocalRandom.current().nextInt(PLAYERS)]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void churnWriter() {
+        UUID player = players[ThreadLocalRandom.current().nextInt(PLAYERS)];
+        authManager.endSession(player);
+        authManager.login(player, false, "127.0.0.1");
+    }
+}
@@ -2,20 +2,53 @@ package org.mapplestudio.authify;
 
 import com.comphenix.protocol.ProtocolLibrary;
 import com.comphenix.protocol.ProtocolManager;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.mapplestudio.authify.audit.AuditLog;
+import org.mapplestudio.authify.commands.AuthifyCommand;
 import org.mapplestudio.authify.commands.LoginCommand;
 import org.mapplestudio.authify.commands.RegisterCommand;
+import org.mapplestudio.authify.crypto.CryptoEngine;
 import org.mapplestudio.authify.database.DatabaseManager;
+import org.mapplestudio.authify.database.EmbeddedUserStore;
+import org.mapplestudio.authify.database.FilteredUserStore;
+import org.mapplestudio.authify.database.SqlSessionStore;
+import org.mapplestudio.authify.database.UserStore;
+import org.mapplestudio.authify.importer.UserImporter;
+import org.mapplestudio.authify.listeners.LoginHandshakeHandler;
 import org.mapplestudio.authify.listeners.LoginProtocolListener;
 import org.mapplestudio.authify.listeners.PlayerSecurityListener;
 import org.mapplestudio.authify.managers.AuthManager;
+import org.mapplestudio.authify.managers.ExecutorManager;
+import org.mapplestudio.authify.managers.HashingManager;
+import org.mapplestudio.authify.managers.LocalSessionStore;
+import org.mapplestudio.authify.managers.LoginAdmissionController;
+import org.mapplestudio.authify.managers.SessionStore;
+import org.mapplestudio.authify.metrics.MetricsRegistry;
+import org.mapplestudio.authify.metrics.PrometheusExporter;
+import org.mapplestudio.authify.mojang.MojangHttpClient;
+import org.mapplestudio.authify.mojang.MojangProfileChecker;
+import org.mapplestudio.authify.mojang.MojangSessionService;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+import org.mapplestudio.authify.utils.CircuitBreaker;
+import org.mapplestudio.authify.utils.ExpiringCache;
 
 public final class Authify extends JavaPlugin {
 
+    private ExecutorManager executorManager;
+    private UserStore userStore;
+    // Null when users are kept in the embedded store
     private DatabaseManager databaseManager;
+    private SessionStore sessionStore;
     private AuthManager authManager;
     private ProtocolManager protocolManager;
+    private LoginHandshakeHandler loginHandler;
+    private LoginProtocolListener loginListener;
+    private CryptoEngine cryptoEngine;
+    private PrometheusExporter metricsExporter;
+    private UserImporter userImporter;
+    private AuditLog auditLog;
     private boolean debugMode;
 
     @Override
@@ -26,23 +59,46 @@ public final class Authify extends JavaPlugin {
         this.debugMode = getConfig().getBoolean("debug", false);
 
         // Initialize Managers
-        this.databaseManager = new DatabaseManager(this);
-        this.authManager = new AuthManager();
+        MetricsRegistry metrics = new MetricsRegistry();
+        this.executorManager = new ExecutorManager(this);
+        this.executorManager.startReporting();
+        this.userStore = createUserStore();
+        this.sessionStore = createSessionStore();
+        this.auditLog = new AuditLog(this, databaseManager);
+        this.authManager = new AuthManager(this, sessionStore);
+        HashingManager hashingManager = new HashingManager(this, executorManager.getHashingExecutor());
+        hashingManager.calibrate();
         this.protocolManager = ProtocolLibrary.getProtocolManager();
 
         // Register Listeners
         // 1. Login Protocol Listener (Ini Packet Listener, jadi pakai ProtocolManager)
-        LoginProtocolListener loginListener = new LoginProtocolListener(this, databaseManager, authManager);
+        MojangHttpClient mojangHttpClient = new MojangHttpClient(this);
+        MojangProfileChecker profileChecker = new MojangProfileChecker(this, mojangHttpClient);
+        MojangSessionService sessionService = new MojangSessionService(this, mojangHttpClient, executorManager.getHttpExecutor());
+        this.cryptoEngine = new CryptoEngine(this);
+        cryptoEngine.startRotation(this);
+        this.loginHandler = new LoginHandshakeHandler(this, userStore, authManager,
+                profileChecker, sessionService, new LoginAdmissionController(this), cryptoEngine,
+                executorManager.getCryptoExecutor(), auditLog, metrics);
+        this.loginListener = new LoginProtocolListener(this, protocolManager, loginHandler);
         protocolManager.addPacketListener(loginListener);
 
         // 2. Security Listener (Ini SEKARANG cuma Bukkit Listener biasa, JANGAN pakai protocolManager)
         PlayerSecurityListener securityListener = new PlayerSecurityListener(this, authManager);
         // HAPUS BARIS INI: protocolManager.addPacketListener(securityListener);
         Bukkit.getPluginManager().registerEvents(securityListener, this);
+        securityListener.restrictOnlinePlayers();
 
         // Register Commands
-        getCommand("register").setExecutor(new RegisterCommand(this, databaseManager, authManager));
-        getCommand("login").setExecutor(new LoginCommand(this, databaseManager, authManager));
+        getCommand("register").setExecutor(new RegisterCommand(this, userStore, authManager, hashingManager, auditLog, metrics));
+        getCommand("login").setExecutor(new LoginCommand(this, userStore, authManager, hashingManager, auditLog, metrics));
+        this.userImporter = new UserImporter(this, userStore, hashingManager);
+        getCommand("authify").setExecutor(new AuthifyCommand(this, metrics, userImporter));
+
+        // Metrics
+        registerMetrics(metrics, hashingManager, profileChecker, sessionService, securityListener);
+        this.metricsExporter = new PrometheusExporter(this, metrics);
+        metricsExporter.start();
 
         getLogger().info("Authify has been enabled!");
         if (debugMode) {
@@ -50,10 +106,132 @@ public final class Authify extends JavaPlugin {
         }
     }
 
+    private UserStore createUserStore() {
+        if ("embedded".equalsIgnoreCase(getConfig().getString("database.type", "sqlite"))) {
+            return new EmbeddedUserStore(this);
+        }
+        this.databaseManager = new DatabaseManager(this, executorManager.getDatabaseExecutor());
+        if (!getConfig().getBoolean("username-filter.enabled", true)) {
+            return databaseManager;
+        }
+        FilteredUserStore filtered = new FilteredUserStore(this, databaseManager);
+        filtered.load();
+        filtered.startRefresh(this, getConfig().getLong("username-filter.refresh-seconds", 30));
+        return filtered;
+    }
+
+    private SessionStore createSessionStore() {
+        if ("sql".equalsIgnoreCase(getConfig().getString("sessions.store", "local"))) {
+            if (databaseManager == null) {
+                getLogger().warning("sessions.store 'sql' needs a sqlite or mysql database, keeping sessions local");
+                return new LocalSessionStore(getConfig().getInt("sessions.resume-max-entries", 10000));
+            }
+            SqlSessionStore store = new SqlSessionStore(this, databaseManager);
+            store.start(this);
+            return store;
+        }
+        return new LocalSessionStore(getConfig().getInt("sessions.resume-max-entries", 10000));
+    }
+
+    private void registerMetrics(MetricsRegistry metrics, HashingManager hashingManager, MojangProfileChecker profileChecker,
+                                 MojangSessionService sessionService, PlayerSecurityListener securityListener) {
+        for (BoundedExecutor executor : executorManager.getExecutors()) {
+            String name = "executor_" + executor.getName();
+            metrics.gauge(name + "_active", "Busy threads in the " + executor.getName() + " pool", executor::getActiveCount);
+            metrics.gauge(name + "_queued", "Tasks waiting in the " + executor.getName() + " pool", executor::getQueueDepth);
+            metrics.counter(name + "_completed_total", "Tasks run by the " + executor.getName() + " pool", executor::getCompletedCount);
+            metrics.counter(name + "_rejected_total", "Tasks rejected by the " + executor.getName() + " pool", executor::getRejectedCount);
+        }
+
+        if (databaseManager != null) {
+            HikariPoolMXBean pool = databaseManager.getPoolStats();
+            metrics.gauge("db_pool_active", "Connections in use", pool::getActiveConnections);
+            metrics.gauge("db_pool_idle", "Idle connections", pool::getIdleConnections);
+            metrics.gauge("db_pool_total", "Open connections", pool::getTotalConnections);
+            metrics.gauge("db_pool_waiting", "Threads waiting for a connection", pool::getThreadsAwaitingConnection);
+            metrics.gauge("db_pending_writes", "Writes queued for the next batch", databaseManager::getPendingWriteCount);
+            ExpiringCache<?, ?> userCache = databaseManager.getUserCache();
+            metrics.gauge("user_cache_size", "Cached user records", userCache::size);
+            metrics.counter("user_cache_hits_total", "User lookups answered from cache", userCache::getHitCount);
+            metrics.counter("user_cache_misses_total", "User lookups that went to the database", userCache::getMissCount);
+        }
+        if (userStore instanceof FilteredUserStore filtered) {
+            metrics.gauge("username_filter_names", "Usernames in the pre-login filter",
+                    () -> filtered.getFilter() != null ? filtered.getFilter().getInsertions() : 0);
+            metrics.gauge("username_filter_bytes", "Memory used by the pre-login filter",
+                    () -> filtered.getFilter() != null ? filtered.getFilter().getSizeBytes() : 0);
+            metrics.gauge("username_filter_expected_false_positive_ppm", "Expected false-positive rate of the filter, per million",
+                    () -> filtered.getFilter() != null ? Math.round(filtered.getFilter().getExpectedFalsePositiveRate() * 1_000_000) : 0);
+            metrics.counter("username_filter_skipped_total", "Lookups of unknown names answered without the database", filtered::getSkippedCount);
+            metrics.counter("username_filter_false_positives_total", "Lookups the filter let through that found no user", filtered::getFalsePositiveCount);
+        } else if (userStore instanceof EmbeddedUserStore embedded) {
+            metrics.gauge("embedded_users", "Users in the embedded store", embedded::getUserCount);
+            metrics.gauge("embedded_log_bytes", "Size of the embedded user log", embedded::getLogSize);
+            metrics.counter("embedded_compactions_total", "Times the embedded user log was compacted", embedded::getCompactionCount);
+        }
+
+        metrics.counter("mojang_profile_requests_total", "Profile lookups sent to Mojang", profileChecker::getRequestCount);
+        metrics.counter("mojang_profile_coalesced_total", "Profile lookups that joined one already in flight", profileChecker::getCoalescedCount);
+        metrics.counter("mojang_profile_rate_limited_total", "429 responses from the profile API", profileChecker::getRateLimitedCount);
+        metrics.counter("mojang_profile_fallback_total", "Profile lookups answered from the last known result", profileChecker::getFallbackCount);
+        registerBreaker(metrics, "mojang_profile", profileChecker.getCircuitBreaker());
+        registerBreaker(metrics, "mojang_session", sessionService.getCircuitBreaker());
+
+        LoginAdmissionController admission = loginHandler.getAdmissionController();
+        metrics.gauge("login_queue_active", "Pre-login lookups running", admission::getActiveCount);
+        metrics.gauge("login_queue_waiting", "Pre-login lookups waiting for a slot", admission::getQueuedCount);
+        metrics.gauge("login_handshakes", "Connections between LoginStart and release", loginHandler::getHandshakeCount);
+
+        metrics.counter("audit_recorded_total", "Authentication events queued for the audit log", auditLog::getRecordedCount);
+        metrics.counter("audit_dropped_total", "Audit events lost because the buffer was full", auditLog::getDroppedCount);
+        metrics.counter("audit_written_total", "Audit events written out", auditLog::getWrittenCount);
+        metrics.counter("audit_failed_total", "Audit events lost because the write failed", auditLog::getFailedCount);
+        metrics.gauge("audit_backlog", "Audit events waiting to be written", auditLog::getBacklog);
+
+        metrics.gauge("sessions", "Players with a session", authManager::getSessionCount);
+        metrics.gauge("session_grants", "Players who can join without /login", sessionStore::size);
+        metrics.gauge("restricted_players", "Online players who haven't logged in", securityListener.getRestrictions()::getRestrictedCount);
+        metrics.counter("hashing_throttled_total", "Password operations refused because the player had one in flight", hashingManager::getThrottledCount);
+    }
+
+    private static void registerBreaker(MetricsRegistry metrics, String prefix, CircuitBreaker breaker) {
+        metrics.gauge(prefix + "_breaker_state", "Circuit breaker for the Mojang " + breaker.getName()
+                + " (0 closed, 1 open, 2 half-open)", () -> breaker.getState().ordinal());
+        metrics.counter(prefix + "_breaker_opened_total", "Times the " + breaker.getName() + " circuit opened", breaker::getOpenedCount);
+        metrics.counter(prefix + "_breaker_rejected_total", "Calls to the " + breaker.getName() + " skipped by the open circuit",
+                breaker::getRejectedCount);
+    }
+
     @Override
     public void onDisable() {
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+        }
+        if (loginListener != null) {
+            protocolManager.removePacketListener(loginListener);
+            loginHandler.shutdown();
+        }
+        if (cryptoEngine != null) {
+            cryptoEngine.shutdown();
+        }
+        if (executorManager != null) {
+            executorManager.shutdown();
+        }
+        if (userImporter != null && userImporter.cancel(10000)) {
+            getLogger().info("Stopped the running import; it can be resumed after the restart");
+        }
+        if (auditLog != null) {
+            auditLog.close(5000);
+        }
+        if (sessionStore != null) {
+            sessionStore.close();
+        }
         if (databaseManager != null) {
-            databaseManager.close();
+            // Commit queued registrations before the pool goes away
+            databaseManager.flushPendingWrites();
+        }
+        if (userStore != null) {
+            userStore.close();
         }
         getLogger().info("Authify has been disabled!");
     }
@@ -0,0 +1,72 @@
+package org.mapplestudio.authify.audit;
+
+import java.util.UUID;
+
+/**
+ * One authentication event. Instances are the preallocated slots of the {@link AuditLog} ring and
+ * are reused: a sink must copy what it needs in {@link AuditSink#write} and not keep the event.
+ */
+public final class AuditEvent {
+    public enum Type {
+        LOGIN,
+        LOGIN_FAILED,
+        REGISTER,
+        PREMIUM_VERIFIED,
+        PREMIUM_FAILED,
+        KICK
+    }
+
+    private long timestamp;
+    private Type type;
+    private String username;
+    private UUID uuid;
+    private String ip;
+    private String detail;
+
+    void set(long timestamp, Type type, String username, UUID uuid, String ip, String detail) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.username = username;
+        this.uuid = uuid;
+        this.ip = ip;
+        this.detail = detail;
+    }
+
+    // So a drained slot doesn't keep the strings alive until it's reused
+    void clear() {
+        set(0, null, null, null, null, null);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the player name, or null if it isn't known
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return the player's UUID, or null before the server has settled on one (e.g. pre-login kicks)
+     */
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * @return a short reason, or null
+     */
+    public String getDetail() {
+        return detail;
+    }
+}
@@ -0,0 +1,280 @@
+package org.mapplestudio.authify.audit;
+
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.database.DatabaseManager;
+import org.mapplestudio.authify.database.SqlAuditSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Records authentication events for abuse investigations without slowing down the code that
+ * reports them.
+ * <p>
+ * Producers claim a slot of a fixed ring with a single CAS and fill in its preallocated event, so
+ * {@link #record} never locks and allocates nothing of its own. One consumer thread drains the
+ * published slots in order and hands them to the {@link AuditSink} in batches. When the ring is
+ * full, DROP loses the event straight away; BLOCK waits up to the block timeout for the consumer
+ * to make room, then drops it. Either way dropped events are counted.
+ */
+public final class AuditLog {
+    public enum Overflow { DROP, BLOCK }
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long FAILURE_LOG_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Logger logger;
+    // Null when auditing is off
+    private final AuditSink sink;
+    private final Overflow overflow;
+    private final long blockTimeoutNanos;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final AuditEvent[] slots;
+    private final int mask;
+    // Per slot: sequence + 1 of the event it holds, stored once the event is fully written
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    // Every sequence below this has been handed to the sink, so its slot can be reused
+    private volatile long consumed;
+    private volatile boolean running = true;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Thread consumer;
+    // Consumer thread only
+    private long lastFailureLog;
+    private long failedSinceLog;
+
+    public AuditLog(Authify plugin, DatabaseManager database) {
+        this(plugin.getLogger(), createSink(plugin, database),
+                plugin.getConfig().getInt("audit.buffer-size", 8192),
+                "block".equalsIgnoreCase(plugin.getConfig().getString("audit.overflow", "drop")) ? Overflow.BLOCK : Overflow.DROP,
+                plugin.getConfig().getLong("audit.block-timeout-ms", 5),
+                plugin.getConfig().getInt("audit.batch-size", 512),
+                plugin.getConfig().getLong("audit.flush-interval-ms", 1000));
+    }
+
+    /**
+     * @param sink     null to turn auditing off; {@link #record} then does nothing
+     * @param capacity ring size, rounded up to a power of two
+     */
+    public AuditLog(Logger logger, AuditSink sink, int capacity, Overflow overflow, long blockTimeoutMillis,
+                    int batchSize, long flushIntervalMillis) {
+        this.logger = logger;
+        this.sink = sink;
+        this.overflow = overflow;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMillis));
+        int size = sink == null ? 1 : 1 << (32 - Integer.numberOfLeadingZeros(Math.max(2, capacity) - 1));
+        this.slots = new AuditEvent[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new AuditEvent();
+        }
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        this.batchSize = Math.max(1, Math.min(size, batchSize));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        if (sink != null) {
+            this.consumer = new Thread(this::run, "authify-audit");
+            this.consumer.setDaemon(true);
+            this.consumer.start();
+        } else {
+            this.consumer = null;
+        }
+    }
+
+    private static AuditSink createSink(Authify plugin, DatabaseManager database) {
+        if (!plugin.getConfig().getBoolean("audit.enabled", true)) {
+            return null;
+        }
+        String type = plugin.getConfig().getString("audit.sink", "database").toLowerCase(Locale.ROOT);
+        if (type.equals("database")) {
+            if (database != null) {
+                return new SqlAuditSink(database);
+            }
+            plugin.getLogger().warning("audit.sink 'database' needs a sqlite or mysql database, writing audit files instead");
+        }
+        return new FileAuditSink(new File(plugin.getDataFolder(), "audit").toPath(),
+                plugin.getConfig().getLong("audit.file.max-size-mb", 16) * 1024 * 1024,
+                plugin.getConfig().getInt("audit.file.max-files", 30));
+    }
+
+    /**
+     * Queues an event. Safe from any thread, including the main thread: with the DROP policy it
+     * never waits, with BLOCK at most the block timeout.
+     *
+     * @return false if the event was dropped (or auditing is off)
+     */
+    public boolean record(AuditEvent.Type type, String username, UUID uuid, String ip, String detail) {
+        if (sink == null) {
+            return false;
+        }
+        long sequence = running ? claim() : -1;
+        if (sequence < 0) {
+            dropped.increment();
+            return false;
+        }
+        int index = (int) sequence & mask;
+        slots[index].set(System.currentTimeMillis(), type, username, uuid, ip, detail);
+        published.lazySet(index, sequence + 1);
+        recorded.increment();
+        if (sequence - consumed == batchSize) {
+            // A full batch is waiting; don't leave it for the flush interval
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * @return the claimed sequence, or -1 if the ring stayed full
+     */
+    private long claim() {
+        boolean waiting = false;
+        long deadline = 0;
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed < slots.length) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    return sequence;
+                }
+                continue;
+            }
+            if (overflow == Overflow.DROP) {
+                return -1;
+            }
+            long now = System.nanoTime();
+            if (!waiting) {
+                waiting = true;
+                deadline = now + blockTimeoutNanos;
+                LockSupport.unpark(consumer);
+            } else if (now - deadline >= 0) {
+                return -1;
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+    }
+
+    private void run() {
+        long next = consumed;
+        while (true) {
+            int count = 0;
+            IOException error = null;
+            while (count < batchSize) {
+                long sequence = next + count;
+                int index = (int) sequence & mask;
+                if (published.get(index) != sequence + 1) {
+                    break;
+                }
+                AuditEvent event = slots[index];
+                if (error == null) {
+                    try {
+                        sink.write(event);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                event.clear();
+                count++;
+            }
+
+            if (count > 0) {
+                if (error == null) {
+                    try {
+                        sink.flush();
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                if (error == null) {
+                    written.add(count);
+                } else {
+                    failed.add(count);
+                    reportFailure(error, count);
+                }
+                next += count;
+                consumed = next;
+                continue;
+            }
+            if (!running) {
+                // Nothing left that was published before close()
+                return;
+            }
+            LockSupport.parkNanos(this, flushIntervalNanos);
+        }
+    }
+
+    private void reportFailure(IOException error, int count) {
+        failedSinceLog += count;
+        long now = System.nanoTime();
+        if (lastFailureLog == 0 || now - lastFailureLog >= FAILURE_LOG_INTERVAL_NANOS) {
+            logger.warning("Could not write " + failedSinceLog + " audit event(s): " + error.getMessage());
+            lastFailureLog = now;
+            failedSinceLog = 0;
+        }
+    }
+
+    /**
+     * Stops taking events, writes out what is already queued and closes the sink.
+     */
+    public void close(long timeoutMillis) {
+        if (sink == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (consumer.isAlive()) {
+            logger.warning("Audit log did not drain within " + timeoutMillis + "ms, " + getBacklog() + " event(s) lost");
+            return;
+        }
+        try {
+            sink.close();
+        } catch (IOException e) {
+            logger.warning("Could not close the audit log: " + e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return sink != null;
+    }
+
+    public int getCapacity() {
+        return sink == null ? 0 : slots.length;
+    }
+
+    /**
+     * @return events claimed but not yet handed to the sink
+     */
+    public long getBacklog() {
+        return claimed.get() - consumed;
+    }
+
+    public long getRecordedCount() {
+        return recorded.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+}
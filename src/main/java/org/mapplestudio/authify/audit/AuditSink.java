@@ -0,0 +1,20 @@
+package org.mapplestudio.authify.audit;
+
+import java.io.IOException;
+
+/**
+ * Where the {@link AuditLog} consumer writes events. Only ever called from that one thread: a
+ * batch is a run of {@link #write} calls followed by {@link #flush}. After any of them throws,
+ * the rest of the batch is discarded and the next write starts a new one.
+ */
+public interface AuditSink {
+
+    void write(AuditEvent event) throws IOException;
+
+    /**
+     * Makes the events written since the last flush durable (commit, or flush to the file).
+     */
+    void flush() throws IOException;
+
+    void close() throws IOException;
+}
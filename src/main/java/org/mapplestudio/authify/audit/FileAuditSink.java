@@ -0,0 +1,140 @@
+package org.mapplestudio.authify.audit;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Appends one tab-separated line per event (time, type, name, uuid, ip, detail; "-" when empty)
+ * to {@code audit-<date>.log}. A new file is started each day (UTC) and whenever the current one
+ * reaches the size limit ({@code audit-<date>.1.log}, ...). Files beyond the limit are deleted,
+ * oldest first.
+ */
+public class FileAuditSink implements AuditSink {
+    private final Path directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final StringBuilder line = new StringBuilder(160);
+    private Writer writer;
+    private LocalDate fileDate;
+    private long fileBytes;
+
+    public FileAuditSink(Path directory, long maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.maxFileBytes = Math.max(1024, maxFileBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    @Override
+    public void write(AuditEvent event) throws IOException {
+        line.setLength(0);
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(event.getTimestamp()), line);
+        append(event.getType().name());
+        append(event.getUsername());
+        append(event.getUuid() != null ? event.getUuid().toString() : null);
+        append(event.getIp());
+        append(event.getDetail());
+        line.append('\n');
+
+        try {
+            LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(event.getTimestamp()), ZoneOffset.UTC);
+            if (writer == null || !date.equals(fileDate) || fileBytes >= maxFileBytes) {
+                open(date);
+            }
+            writer.append(line);
+            // Close enough: everything but the detail is ASCII
+            fileBytes += line.length();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void append(String field) {
+        line.append('\t');
+        if (field == null || field.isEmpty()) {
+            line.append('-');
+            return;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            // Keep one event per line whatever a kick reason contains
+            line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+        }
+    }
+
+    private void open(LocalDate date) throws IOException {
+        close();
+        Files.createDirectories(directory);
+        Path file;
+        for (int part = 0; ; part++) {
+            file = directory.resolve("audit-" + date + (part == 0 ? "" : "." + part) + ".log");
+            if (!Files.exists(file) || Files.size(file) < maxFileBytes) {
+                break;
+            }
+        }
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        fileDate = date;
+        fileBytes = Files.size(file);
+        prune();
+    }
+
+    private void prune() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith("audit-") && name.endsWith(".log");
+            }).forEach(files::add);
+        }
+        if (files.size() <= maxFiles) {
+            return;
+        }
+        files.sort(Comparator.comparing(path -> {
+            try {
+                return Files.getLastModifiedTime(path);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }));
+        for (Path old : files.subList(0, files.size() - maxFiles)) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+                // Nothing more can be done with this file
+            }
+            writer = null;
+        }
+    }
+}
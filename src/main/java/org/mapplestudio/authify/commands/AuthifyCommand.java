@@ -0,0 +1,159 @@
+package org.mapplestudio.authify.commands;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.importer.UserImporter;
+import org.mapplestudio.authify.metrics.LatencyHistogram;
+import org.mapplestudio.authify.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Admin command: {@code /authify stats} and {@code /authify import}.
+ */
+public class AuthifyCommand implements TabExecutor {
+    private static final List<String> SUBCOMMANDS = List.of("stats", "import");
+    private static final List<String> IMPORT_ACTIONS = List.of("csv", "jdbc", "status", "cancel");
+    private static final List<String> IMPORT_MODES = List.of("resume", "restart");
+
+    private final Authify plugin;
+    private final MetricsRegistry metrics;
+    private final UserImporter importer;
+
+    public AuthifyCommand(Authify plugin, MetricsRegistry metrics, UserImporter importer) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+        this.importer = importer;
+    }
+
+    private String getMessage(String path) {
+        String msg = plugin.getConfig().getString("messages." + path);
+        if (msg == null) return "";
+        String prefix = plugin.getConfig().getString("messages.prefix", "");
+        return ChatColor.translateAlternateColorCodes('&', prefix + msg);
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if (!sender.hasPermission("authify.admin")) {
+            sender.sendMessage(getMessage("no-permission"));
+            return true;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            sendStats(sender);
+            return true;
+        }
+        if (args.length >= 2 && args[0].equalsIgnoreCase("import")) {
+            handleImport(sender, args);
+            return true;
+        }
+        sender.sendMessage(getMessage("usage-authify"));
+        return true;
+    }
+
+    private void sendStats(CommandSender sender) {
+        sender.sendMessage(ChatColor.AQUA + "Authify latency" + ChatColor.GRAY + " (p50 / p99 / max, ms)");
+        for (MetricsRegistry.Histogram entry : metrics.getHistograms()) {
+            LatencyHistogram.Snapshot snapshot = entry.histogram().snapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            sender.sendMessage(ChatColor.GRAY + " " + entry.name().replace("_seconds", "") + ": " + ChatColor.WHITE
+                    + millis(snapshot.getValueAtQuantile(0.5)) + " / " + millis(snapshot.getValueAtQuantile(0.99))
+                    + " / " + millis(snapshot.getMaxMicros()) + ChatColor.GRAY + " (" + snapshot.getCount() + ")");
+        }
+        sender.sendMessage(ChatColor.AQUA + "Authify counters");
+        StringBuilder line = new StringBuilder();
+        for (MetricsRegistry.Sampled entry : metrics.getSampled()) {
+            String item = ChatColor.GRAY + entry.name() + "=" + ChatColor.WHITE + entry.value().getAsLong();
+            if (line.length() + item.length() > 200) {
+                sender.sendMessage(" " + line);
+                line.setLength(0);
+            }
+            if (line.length() > 0) {
+                line.append(' ');
+            }
+            line.append(item);
+        }
+        if (line.length() > 0) {
+            sender.sendMessage(" " + line);
+        }
+    }
+
+    // /authify import <csv|jdbc> [resume|restart] | status | cancel
+    private void handleImport(CommandSender sender, String[] args) {
+        String action = args[1].toLowerCase(Locale.ROOT);
+        if (action.equals("status")) {
+            sendImportStatus(sender);
+            return;
+        }
+        if (action.equals("cancel")) {
+            sender.sendMessage(importer.cancel(0) ? ChatColor.GRAY + "Stopping the import after the current row."
+                    : ChatColor.RED + "No import is running.");
+            return;
+        }
+        String mode = args.length > 2 ? args[2].toLowerCase(Locale.ROOT) : "";
+        if (!IMPORT_ACTIONS.contains(action) || (!mode.isEmpty() && !IMPORT_MODES.contains(mode))) {
+            sender.sendMessage(getMessage("usage-authify"));
+            return;
+        }
+        try {
+            if (mode.equals("restart")) {
+                importer.discardCheckpoint();
+            }
+            importer.start(importer.createSource(action), mode.equals("resume"));
+            sender.sendMessage(ChatColor.GRAY + "Import started; progress is logged to the console. "
+                    + "Check it with /authify import status.");
+        } catch (IllegalArgumentException | IllegalStateException | IOException e) {
+            sender.sendMessage(ChatColor.RED + "Could not start the import: " + e.getMessage());
+        }
+    }
+
+    private void sendImportStatus(CommandSender sender) {
+        UserImporter.Progress progress = importer.getProgress();
+        if (progress == null) {
+            sender.sendMessage(ChatColor.GRAY + "No import has run since the server started.");
+            return;
+        }
+        sender.sendMessage(ChatColor.AQUA + "Import " + (progress.running() ? "running" : "stopped") + ChatColor.GRAY
+                + " (" + progress.source() + ", " + progress.elapsedMillis() / 1000 + "s)");
+        sender.sendMessage(ChatColor.GRAY + " read=" + ChatColor.WHITE + progress.read()
+                + ChatColor.GRAY + " imported=" + ChatColor.WHITE + progress.imported()
+                + ChatColor.GRAY + " existing=" + ChatColor.WHITE + progress.existing()
+                + ChatColor.GRAY + " invalid=" + ChatColor.WHITE + progress.invalid()
+                + ChatColor.GRAY + " unsupported_hash=" + ChatColor.WHITE + progress.unsupportedHash()
+                + ChatColor.GRAY + " rows/s=" + ChatColor.WHITE + progress.rowsPerSecond());
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        if (!sender.hasPermission("authify.admin")) {
+            return List.of();
+        }
+        if (args.length == 1) {
+            return matching(SUBCOMMANDS, args[0]);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            return matching(IMPORT_ACTIONS, args[1]);
+        }
+        if (args.length == 3 && args[0].equalsIgnoreCase("import")
+                && (args[1].equalsIgnoreCase("csv") || args[1].equalsIgnoreCase("jdbc"))) {
+            return matching(IMPORT_MODES, args[2]);
+        }
+        return List.of();
+    }
+
+    private static List<String> matching(List<String> options, String prefix) {
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        return options.stream().filter(option -> option.startsWith(lower)).toList();
+    }
+}
@@ -1,25 +1,47 @@
 package org.mapplestudio.authify.commands;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.mapplestudio.authify.Authify;
-import org.mapplestudio.authify.database.DatabaseManager;
+import org.mapplestudio.authify.audit.AuditEvent;
+import org.mapplestudio.authify.audit.AuditLog;
+import org.mapplestudio.authify.database.UserStore;
 import org.mapplestudio.authify.managers.AuthManager;
-import org.mapplestudio.authify.managers.AuthSession;
+import org.mapplestudio.authify.managers.HashingManager;
+import org.mapplestudio.authify.metrics.LatencyHistogram;
+import org.mapplestudio.authify.metrics.MetricsRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class LoginCommand implements CommandExecutor {
     private final Authify plugin;
-    private final DatabaseManager databaseManager;
+    private final UserStore userStore;
     private final AuthManager authManager;
+    private final HashingManager hashingManager;
+    private final AuditLog auditLog;
+    private final LatencyHistogram databaseLatency;
+    private final LatencyHistogram verifyLatency;
+    private final LatencyHistogram totalLatency;
+    private final LongAdder successes;
+    private final LongAdder failures;
 
-    public LoginCommand(Authify plugin, DatabaseManager databaseManager, AuthManager authManager) {
+    public LoginCommand(Authify plugin, UserStore userStore, AuthManager authManager, HashingManager hashingManager,
+                        AuditLog auditLog, MetricsRegistry metrics) {
         this.plugin = plugin;
-        this.databaseManager = databaseManager;
+        this.userStore = userStore;
         this.authManager = authManager;
+        this.hashingManager = hashingManager;
+        this.auditLog = auditLog;
+        this.databaseLatency = metrics.histogram("command_login_database_seconds", "/login password hash lookup");
+        this.verifyLatency = metrics.histogram("command_login_verify_seconds", "/login password verification, including queueing");
+        this.totalLatency = metrics.histogram("command_login_seconds", "/login from command to reply");
+        this.successes = metrics.counter("command_login_success_total", "Successful /login attempts");
+        this.failures = metrics.counter("command_login_failure_total", "/login attempts with a wrong password");
     }
 
     private String getMessage(String path) {
@@ -48,28 +70,70 @@ public class LoginCommand implements CommandExecutor {
 
         String password = args[0];
 
-        databaseManager.getPasswordHash(player.getName()).thenAccept(hashedPassword -> {
+        if (!hashingManager.tryBegin(player.getUniqueId())) {
+            player.sendMessage(getMessage("server-busy"));
+            return true;
+        }
+
+        long start = System.nanoTime();
+        databaseLatency.time(() -> userStore.getPasswordHash(player.getName())).thenCompose(hashedPassword -> {
             if (hashedPassword == null) {
                 player.sendMessage(getMessage("not-registered"));
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
-            BCrypt.Result result = BCrypt.verifyer().verify(password.toCharArray(), hashedPassword);
-            if (result.verified) {
-                AuthSession session = authManager.createSession(player.getUniqueId());
-                session.setLoggedIn(true);
-                session.setPremium(false);
-                
-                // FIX: Force teleport to refresh chunks and remove void effect
-                plugin.getServer().getScheduler().runTask(plugin, () -> {
-                    player.teleport(player.getLocation());
-                    player.sendMessage(getMessage("login-success"));
-                });
-            } else {
-                player.sendMessage(getMessage("login-failed"));
+            return verifyLatency.time(() -> hashingManager.verify(password, hashedPassword)).thenCompose(verified -> {
+                String ip = player.getAddress().getAddress().getHostAddress();
+                if (verified) {
+                    successes.increment();
+                    auditLog.record(AuditEvent.Type.LOGIN, player.getName(), player.getUniqueId(), ip, null);
+                    authManager.login(player.getUniqueId(), false, ip);
+                    userStore.recordLogin(player.getUniqueId(), ip);
+
+                    // FIX: Force teleport to refresh chunks and remove void effect
+                    plugin.getServer().getScheduler().runTask(plugin, () -> {
+                        player.teleport(player.getLocation());
+                        player.sendMessage(getMessage("login-success"));
+                    });
+
+                    if (hashingManager.needsRehash(hashedPassword)) {
+                        return upgradeHash(player, password, hashedPassword);
+                    }
+                } else {
+                    failures.increment();
+                    auditLog.record(AuditEvent.Type.LOGIN_FAILED, player.getName(), player.getUniqueId(), ip, "wrong password");
+                    player.sendMessage(getMessage("login-failed"));
+                }
+                return CompletableFuture.<Void>completedFuture(null);
+            });
+        }).whenComplete((ignored, ex) -> {
+            hashingManager.end(player.getUniqueId());
+            totalLatency.recordSince(start);
+            if (ex != null) {
+                if (!(ex.getCause() instanceof RejectedExecutionException)) {
+                    plugin.getLogger().warning("Login for " + player.getName() + " failed: " + ex.getMessage());
+                }
+                player.sendMessage(getMessage("server-busy"));
             }
         });
 
         return true;
     }
+
+    /**
+     * Re-hashes the password with the current algorithm/cost. The player is already logged in,
+     * so failures here are only logged.
+     */
+    private CompletableFuture<Void> upgradeHash(Player player, String password, String oldHash) {
+        return hashingManager.hash(password)
+                .thenCompose(newHash -> userStore.updatePasswordHash(player.getName(), oldHash, newHash))
+                .handle((updated, ex) -> {
+                    if (ex != null) {
+                        plugin.debug("Could not upgrade password hash for " + player.getName() + ": " + ex.getMessage());
+                    } else if (updated) {
+                        plugin.debug("Upgraded password hash for " + player.getName());
+                    }
+                    return null;
+                });
+    }
 }
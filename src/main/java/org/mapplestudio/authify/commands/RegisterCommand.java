@@ -1,25 +1,46 @@
 package org.mapplestudio.authify.commands;
 
-import at.favre.lib.crypto.bcrypt.BCrypt;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.mapplestudio.authify.Authify;
-import org.mapplestudio.authify.database.DatabaseManager;
+import org.mapplestudio.authify.audit.AuditEvent;
+import org.mapplestudio.authify.audit.AuditLog;
+import org.mapplestudio.authify.database.UserRecord;
+import org.mapplestudio.authify.database.UserStore;
 import org.mapplestudio.authify.managers.AuthManager;
-import org.mapplestudio.authify.managers.AuthSession;
+import org.mapplestudio.authify.managers.HashingManager;
+import org.mapplestudio.authify.metrics.LatencyHistogram;
+import org.mapplestudio.authify.metrics.MetricsRegistry;
+
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RegisterCommand implements CommandExecutor {
     private final Authify plugin;
-    private final DatabaseManager databaseManager;
+    private final UserStore userStore;
     private final AuthManager authManager;
+    private final HashingManager hashingManager;
+    private final AuditLog auditLog;
+    private final LatencyHistogram hashLatency;
+    private final LatencyHistogram databaseLatency;
+    private final LatencyHistogram totalLatency;
+    private final LongAdder registrations;
 
-    public RegisterCommand(Authify plugin, DatabaseManager databaseManager, AuthManager authManager) {
+    public RegisterCommand(Authify plugin, UserStore userStore, AuthManager authManager, HashingManager hashingManager,
+                           AuditLog auditLog, MetricsRegistry metrics) {
         this.plugin = plugin;
-        this.databaseManager = databaseManager;
+        this.userStore = userStore;
         this.authManager = authManager;
+        this.hashingManager = hashingManager;
+        this.auditLog = auditLog;
+        this.hashLatency = metrics.histogram("command_register_hash_seconds", "/register password hashing, including queueing");
+        this.databaseLatency = metrics.histogram("command_register_database_seconds", "/register insert, until committed");
+        this.totalLatency = metrics.histogram("command_register_seconds", "/register from command to reply");
+        this.registrations = metrics.counter("command_register_success_total", "Accounts created with /register");
     }
 
     private String getMessage(String path) {
@@ -54,27 +75,48 @@ public class RegisterCommand implements CommandExecutor {
             return true;
         }
 
-        databaseManager.getPasswordHash(player.getName()).thenAccept(existingHash -> {
-            if (existingHash != null) {
-                player.sendMessage(getMessage("already-registered"));
-                return;
-            }
-
-            String hashedPassword = BCrypt.withDefaults().hashToString(12, password.toCharArray());
-            String ip = player.getAddress().getAddress().getHostAddress();
-
-            databaseManager.registerUser(player.getUniqueId(), player.getName(), hashedPassword, ip).thenRun(() -> {
-                AuthSession session = authManager.createSession(player.getUniqueId());
-                session.setLoggedIn(true);
-                session.setPremium(false); // Registered users are treated as cracked/offline
-                
-                // FIX: Force teleport to refresh chunks and remove void effect
-                plugin.getServer().getScheduler().runTask(plugin, () -> {
-                    player.teleport(player.getLocation());
-                    player.sendMessage(getMessage("register-success"));
+        // Skip the expensive hash when we already know the name is taken; the insert itself is the real check
+        Optional<UserRecord> cached = userStore.getCachedUser(player.getName());
+        if (cached != null && cached.isPresent()) {
+            player.sendMessage(getMessage("already-registered"));
+            return true;
+        }
+
+        if (!hashingManager.tryBegin(player.getUniqueId())) {
+            player.sendMessage(getMessage("server-busy"));
+            return true;
+        }
+
+        String ip = player.getAddress().getAddress().getHostAddress();
+
+        long start = System.nanoTime();
+        hashLatency.time(() -> hashingManager.hash(password))
+                .thenCompose(hashedPassword -> databaseLatency.time(
+                        () -> userStore.registerUser(player.getUniqueId(), player.getName(), hashedPassword, ip)))
+                .thenAccept(registered -> {
+                    if (!registered) {
+                        player.sendMessage(getMessage("already-registered"));
+                        return;
+                    }
+                    registrations.increment();
+                    auditLog.record(AuditEvent.Type.REGISTER, player.getName(), player.getUniqueId(), ip, null);
+                    authManager.login(player.getUniqueId(), false, ip); // Registered users are treated as cracked/offline
+
+                    // FIX: Force teleport to refresh chunks and remove void effect
+                    plugin.getServer().getScheduler().runTask(plugin, () -> {
+                        player.teleport(player.getLocation());
+                        player.sendMessage(getMessage("register-success"));
+                    });
+                }).whenComplete((ignored, ex) -> {
+                    hashingManager.end(player.getUniqueId());
+                    totalLatency.recordSince(start);
+                    if (ex != null) {
+                        if (!(ex.getCause() instanceof RejectedExecutionException)) {
+                            plugin.getLogger().warning("Registration for " + player.getName() + " failed: " + ex.getMessage());
+                        }
+                        player.sendMessage(getMessage("server-busy"));
+                    }
                 });
-            });
-        });
 
         return true;
     }
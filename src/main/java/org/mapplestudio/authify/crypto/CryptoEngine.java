@@ -0,0 +1,257 @@
+package org.mapplestudio.authify.crypto;
+
+import org.bukkit.scheduler.BukkitTask;
+import org.mapplestudio.authify.Authify;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.logging.Logger;
+
+/**
+ * The RSA side of the premium login handshake. The keypair is saved in the plugin folder so the
+ * first login after a restart doesn't wait for key generation, and is replaced once it's older than
+ * the rotation period. Cipher and digest instances are reused per thread.
+ */
+public class CryptoEngine {
+    private static final int FILE_VERSION = 1;
+    // Well above the encoding of a 4096-bit private key (about 2.4 KiB)
+    private static final int MAX_KEY_BYTES = 8 * 1024;
+    private static final long ROTATION_CHECK_TICKS = 20L * 60 * 10;
+
+    /**
+     * One generation of the server key. Handshakes keep the instance they advertised, so a rotation
+     * in the middle of a login doesn't break it.
+     */
+    public record Keys(KeyPair keyPair, byte[] encodedPublicKey, long createdAt) {
+    }
+
+    public record Decrypted(SecretKey sharedSecret, byte[] verifyToken) {
+    }
+
+    // A Cipher stays initialised between doFinal calls, so only re-init when the key changes
+    private static final class RsaCipher {
+        private final Cipher cipher;
+        private PrivateKey key;
+
+        private RsaCipher() throws GeneralSecurityException {
+            this.cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        }
+    }
+
+    private final Logger logger;
+    private final Path keyFile;
+    private final int keySize;
+    private final long rotateMillis;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<RsaCipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return new RsaCipher();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("RSA is not available", e);
+        }
+    });
+    private final ThreadLocal<MessageDigest> sha1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    });
+    private volatile Keys keys;
+    private BukkitTask rotationTask;
+
+    public CryptoEngine(Authify plugin) {
+        this(plugin.getLogger(), new File(plugin.getDataFolder(), "encryption-key.dat").toPath(),
+                plugin.getConfig().getInt("encryption.key-size", 1024),
+                plugin.getConfig().getLong("encryption.rotate-hours", 24) * 3_600_000L);
+    }
+
+    /**
+     * @param keyFile where the keypair is persisted, or null to keep it in memory only
+     * @param rotateMillis key lifetime, 0 for forever
+     */
+    public CryptoEngine(Logger logger, Path keyFile, int keySize, long rotateMillis) {
+        this.logger = logger;
+        this.keyFile = keyFile;
+        this.keySize = Math.max(1024, Math.min(4096, keySize));
+        this.rotateMillis = Math.max(0, rotateMillis);
+        this.keys = loadOrGenerate();
+    }
+
+    public Keys getKeys() {
+        return keys;
+    }
+
+    public byte[] generateVerifyToken() {
+        byte[] token = new byte[4];
+        random.nextBytes(token);
+        return token;
+    }
+
+    /**
+     * Decrypts the shared secret and verify token from an Encryption Response with one cipher setup.
+     */
+    public Decrypted decrypt(Keys keys, byte[] encryptedSecret, byte[] encryptedToken) throws GeneralSecurityException {
+        RsaCipher rsa = ciphers.get();
+        PrivateKey privateKey = keys.keyPair().getPrivate();
+        if (rsa.key != privateKey) {
+            rsa.cipher.init(Cipher.DECRYPT_MODE, privateKey);
+            rsa.key = privateKey;
+        }
+        try {
+            byte[] secret = rsa.cipher.doFinal(encryptedSecret);
+            byte[] token = rsa.cipher.doFinal(encryptedToken);
+            return new Decrypted(new SecretKeySpec(secret, "AES"), token);
+        } catch (GeneralSecurityException e) {
+            // Bad input may leave the cipher mid-operation; start clean next time
+            rsa.key = null;
+            throw e;
+        }
+    }
+
+    /**
+     * The Minecraft-style (signed, two's complement) SHA-1 hex digest sent to the sessionserver.
+     * The server id string is always empty for modern clients, so it doesn't contribute.
+     */
+    public String serverId(Keys keys, SecretKey sharedSecret) {
+        MessageDigest digest = sha1.get();
+        digest.reset();
+        digest.update(sharedSecret.getEncoded());
+        digest.update(keys.encodedPublicKey());
+        return new BigInteger(digest.digest()).toString(16);
+    }
+
+    /**
+     * Checks the key's age on an async timer and swaps in a fresh one when it's due.
+     */
+    public void startRotation(Authify plugin) {
+        if (rotateMillis <= 0) {
+            return;
+        }
+        rotationTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::rotateIfDue,
+                ROTATION_CHECK_TICKS, ROTATION_CHECK_TICKS);
+    }
+
+    public void rotateIfDue() {
+        if (rotateMillis > 0 && System.currentTimeMillis() - keys.createdAt() >= rotateMillis) {
+            keys = generate();
+            logger.info("Rotated the " + keySize + "-bit login encryption key");
+        }
+    }
+
+    public void shutdown() {
+        if (rotationTask != null) {
+            rotationTask.cancel();
+        }
+    }
+
+    private Keys loadOrGenerate() {
+        if (keyFile != null && Files.exists(keyFile)) {
+            try {
+                Keys loaded = read(keyFile);
+                int loadedSize = ((RSAKey) loaded.keyPair().getPublic()).getModulus().bitLength();
+                boolean expired = rotateMillis > 0 && System.currentTimeMillis() - loaded.createdAt() >= rotateMillis;
+                if (loadedSize == keySize && !expired) {
+                    return loaded;
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                logger.warning("Could not read " + keyFile.getFileName() + ", generating a new key: " + e.getMessage());
+            }
+        }
+        long start = System.nanoTime();
+        Keys generated = generate();
+        logger.info("Generated a " + keySize + "-bit login encryption key in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        return generated;
+    }
+
+    private Keys generate() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(keySize, random);
+            KeyPair keyPair = generator.generateKeyPair();
+            Keys generated = new Keys(keyPair, keyPair.getPublic().getEncoded(), System.currentTimeMillis());
+            if (keyFile != null) {
+                try {
+                    write(keyFile, generated);
+                } catch (IOException e) {
+                    logger.warning("Could not save the login encryption key: " + e.getMessage());
+                }
+            }
+            return generated;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate RSA keys", e);
+        }
+    }
+
+    private static Keys read(Path file) throws IOException, GeneralSecurityException {
+        if (Files.size(file) > 2 * MAX_KEY_BYTES + 32) {
+            throw new IOException("key file is too large");
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("unknown key file version");
+            }
+            long createdAt = in.readLong();
+            byte[] publicBytes = readKeyBytes(in);
+            byte[] privateBytes = readKeyBytes(in);
+            KeyFactory factory = KeyFactory.getInstance("RSA");
+            PublicKey publicKey = factory.generatePublic(new X509EncodedKeySpec(publicBytes));
+            PrivateKey privateKey = factory.generatePrivate(new PKCS8EncodedKeySpec(privateBytes));
+            return new Keys(new KeyPair(publicKey, privateKey), publicKey.getEncoded(), createdAt);
+        }
+    }
+
+    // A truncated or corrupt file must end up as an IOException, so a new key is generated
+    private static byte[] readKeyBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_KEY_BYTES || length > in.available()) {
+            throw new IOException("key file is corrupt (length " + length + ")");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void write(Path file, Keys keys) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            byte[] privateBytes = keys.keyPair().getPrivate().getEncoded();
+            out.writeInt(FILE_VERSION);
+            out.writeLong(keys.createdAt());
+            out.writeInt(keys.encodedPublicKey().length);
+            out.write(keys.encodedPublicKey());
+            out.writeInt(privateBytes.length);
+            out.write(privateBytes);
+        }
+        try {
+            // It's a private key: owner only
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException ignored) {
+            // Not a POSIX filesystem (Windows)
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
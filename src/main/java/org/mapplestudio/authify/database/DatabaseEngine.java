@@ -0,0 +1,24 @@
+package org.mapplestudio.authify.database;
+
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import javax.sql.DataSource;
+
+/**
+ * Where connections come from. Lookups use {@link #reader()}; every mutation (migrations and the
+ * write-behind queue) goes through {@link #writer()}, which may be the same pool.
+ */
+public interface DatabaseEngine {
+    DataSource reader();
+
+    DataSource writer();
+
+    boolean isMySQL();
+
+    /**
+     * Live counters of the pool serving lookups.
+     */
+    HikariPoolMXBean getPoolStats();
+
+    void close();
+}
@@ -1,88 +1,150 @@
 package org.mapplestudio.authify.database;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.bukkit.configuration.ConfigurationSection;
 import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+import org.mapplestudio.authify.utils.ExpiringCache;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
 
-public class DatabaseManager {
-    private final Authify plugin;
-    private HikariDataSource dataSource;
-    private boolean isMySQL;
+/**
+ * The SQL {@link UserStore} (SQLite or MySQL), with a cache in front of lookups and a write-behind
+ * queue for mutations.
+ */
+public class DatabaseManager implements UserStore {
+    // 700 parameters, under SQLite's oldest limit of 999
+    private static final int IMPORT_ROWS_PER_STATEMENT = 100;
 
-    public DatabaseManager(Authify plugin) {
-        this.plugin = plugin;
+    private final ConfigurationSection config;
+    private final File dataFolder;
+    private final Logger logger;
+    private final boolean debug;
+    private final BoundedExecutor executor;
+    private DatabaseEngine engine;
+    private WriteBehindQueue writeQueue;
+    // Empty Optional = known "not found" (negative entry)
+    private final ExpiringCache<String, Optional<UserRecord>> userCache;
+    private final long userTtlMillis;
+    private final long negativeTtlMillis;
+
+    public DatabaseManager(Authify plugin, BoundedExecutor executor) {
+        this(plugin.getConfig(), plugin.getDataFolder(), plugin.getLogger(), executor);
+    }
+
+    /**
+     * Standalone constructor for running without a server (e.g. benchmarks).
+     * {@code config} is the root plugin configuration.
+     */
+    public DatabaseManager(ConfigurationSection config, File dataFolder, Logger logger, BoundedExecutor executor) {
+        this.config = config;
+        this.dataFolder = dataFolder;
+        this.logger = logger;
+        this.debug = config.getBoolean("debug", false);
+        this.executor = executor;
+        this.userCache = new ExpiringCache<>((int) cacheSetting("max-size", 10000));
+        this.userTtlMillis = cacheSetting("ttl-seconds", 300) * 1000L;
+        this.negativeTtlMillis = cacheSetting("negative-ttl-seconds", 30) * 1000L;
         connect();
-        createTables();
+        migrate();
+        this.writeQueue = new WriteBehindQueue(engine.writer(), logger,
+                config.getInt("database.write-behind.batch-size", 100),
+                config.getLong("database.write-behind.flush-interval-ms", 5));
+    }
+
+    /**
+     * Reads {@code cache.users.<key>}, falling back to the {@code cache.premium.<key>} it was called
+     * before the cache held whole user records.
+     */
+    private long cacheSetting(String key, long def) {
+        String legacy = "cache.premium." + key;
+        if (!config.isSet("cache.users." + key) && config.isSet(legacy)) {
+            logger.warning(legacy + " is deprecated, rename it to cache.users." + key);
+            return config.getLong(legacy, def);
+        }
+        return config.getLong("cache.users." + key, def);
     }
 
     private void connect() {
-        String type = plugin.getConfig().getString("database.type", "sqlite");
-        HikariConfig config = new HikariConfig();
+        String type = config.getString("database.type", "sqlite");
 
         if (type.equalsIgnoreCase("mysql")) {
-            this.isMySQL = true;
-            String host = plugin.getConfig().getString("database.mysql.host", "localhost");
-            int port = plugin.getConfig().getInt("database.mysql.port", 3306);
-            String database = plugin.getConfig().getString("database.mysql.database", "authify");
-            String username = plugin.getConfig().getString("database.mysql.username", "root");
-            String password = plugin.getConfig().getString("database.mysql.password", "password");
-            int poolSize = plugin.getConfig().getInt("database.mysql.pool-size", 10);
-
-            config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database);
-            config.setUsername(username);
-            config.setPassword(password);
-            config.setMaximumPoolSize(poolSize);
-            config.addDataSourceProperty("cachePrepStmts", "true");
-            config.addDataSourceProperty("prepStmtCacheSize", "250");
-            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            engine = new MySQLEngine(
+                    config.getString("database.mysql.host", "localhost"),
+                    config.getInt("database.mysql.port", 3306),
+                    config.getString("database.mysql.database", "authify"),
+                    config.getString("database.mysql.username", "root"),
+                    config.getString("database.mysql.password", "password"),
+                    config.getInt("database.mysql.pool-size", 10));
         } else {
-            this.isMySQL = false;
-            String fileName = plugin.getConfig().getString("database.sqlite.file-name", "database.db");
-            config.setJdbcUrl("jdbc:sqlite:" + plugin.getDataFolder() + "/" + fileName);
-            config.setDriverClassName("org.sqlite.JDBC");
-            config.setMaximumPoolSize(10);
+            String fileName = config.getString("database.sqlite.file-name", "database.db");
+            engine = new SQLiteEngine(new File(dataFolder, fileName),
+                    config.getInt("database.sqlite.read-pool-size", 4),
+                    config.getString("database.sqlite.synchronous", "NORMAL"),
+                    config.getInt("database.sqlite.cache-size-kb", 16384),
+                    config.getInt("database.sqlite.mmap-size-mb", 128),
+                    config.getInt("database.sqlite.busy-timeout-ms", 5000),
+                    logger);
         }
-        
-        dataSource = new HikariDataSource(config);
-    }
-
-    private void createTables() {
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(
-                     "CREATE TABLE IF NOT EXISTS authify_users (" +
-                             "uuid VARCHAR(36) PRIMARY KEY, " +
-                             "username VARCHAR(16) NOT NULL, " +
-                             "password VARCHAR(255), " +
-                             "premium BOOLEAN DEFAULT FALSE, " +
-                             "ip VARCHAR(45)" +
-                             ")")) {
-            ps.executeUpdate();
+    }
+
+    private void migrate() {
+        SchemaMigrator migrator = new SchemaMigrator(engine.writer(), engine.isMySQL(), logger,
+                config.getInt("database.migration.batch-size", 5000));
+        try {
+            migrator.migrate();
         } catch (SQLException e) {
-            plugin.getLogger().severe("Could not create tables: " + e.getMessage());
+            // Every query below assumes the latest schema, so there's no point carrying on
+            throw new IllegalStateException("Database migration failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Loads the user's row in one query, answering from the cache when possible.
+     * @return the record, or null if the user isn't registered.
+     */
+    @Override
+    public CompletableFuture<UserRecord> loadUser(String username) {
+        Optional<UserRecord> cached = userCache.get(key(username));
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.orElse(null));
         }
+        return reloadUser(username);
     }
 
     /**
-     * Checks if a user is premium.
-     * @return true if premium, false if cracked, null if user not found.
+     * Like {@link #loadUser(String)} but always reads the database, e.g. before checking a password
+     * that may have been changed on another server.
      */
-    public CompletableFuture<Boolean> isPremium(String username) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement ps = conn.prepareStatement("SELECT premium FROM authify_users WHERE username = ?")) {
-                ps.setString(1, username);
+    @Override
+    public CompletableFuture<UserRecord> reloadUser(String username) {
+        String key = key(username);
+        return executor.supply(() -> {
+            try (Connection conn = engine.reader().getConnection();
+                 PreparedStatement ps = conn.prepareStatement(
+                         "SELECT uuid, username, password, premium, ip FROM authify_users WHERE username_key = ?")) {
+                ps.setString(1, key);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (rs.next()) {
-                        return rs.getBoolean("premium");
+                        UserRecord user = new UserRecord(UuidBytes.fromBytes(rs.getBytes("uuid")), rs.getString("username"),
+                                rs.getString("password"), rs.getBoolean("premium"), rs.getString("ip"));
+                        userCache.put(key, Optional.of(user), userTtlMillis);
+                        return user;
                     }
                 }
+                userCache.put(key, Optional.empty(), negativeTtlMillis);
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -90,53 +152,233 @@ public class DatabaseManager {
         });
     }
 
-    public CompletableFuture<Void> registerUser(UUID uuid, String username, String hashedPassword, String ip) {
-        return CompletableFuture.runAsync(() -> {
-            String sql;
-            if (isMySQL) {
-                sql = "INSERT INTO authify_users (uuid, username, password, premium, ip) VALUES (?, ?, ?, ?, ?) " +
-                      "ON DUPLICATE KEY UPDATE password = ?, ip = ?";
-            } else {
-                sql = "INSERT INTO authify_users (uuid, username, password, premium, ip) VALUES (?, ?, ?, ?, ?) " +
-                      "ON CONFLICT(uuid) DO UPDATE SET password = ?, ip = ?";
+    /**
+     * @return the cached record, {@code Optional.empty()} if the user is known not to exist,
+     * or null if we don't know without asking the database.
+     */
+    @Override
+    public Optional<UserRecord> getCachedUser(String username) {
+        return userCache.get(key(username));
+    }
+
+    /**
+     * Queues the insert of a new cracked user, unless the UUID or username (in any case) is already taken.
+     * The check and the insert are a single statement, so concurrent registrations can't both win.
+     * @return true once the row is committed, false if the user was already registered.
+     */
+    @Override
+    public CompletableFuture<Boolean> registerUser(UUID uuid, String username, String hashedPassword, String ip) {
+        String sql = "INSERT INTO authify_users (uuid, username, username_key, password, premium, ip, created_at) " +
+                "SELECT ?, ?, ?, ?, ?, ?, ? " + (engine.isMySQL() ? "FROM DUAL " : "") +
+                "WHERE NOT EXISTS (SELECT 1 FROM authify_users WHERE uuid = ? OR username_key = ?)";
+        String key = key(username);
+        byte[] uuidBytes = UuidBytes.toBytes(uuid);
+
+        // Drop any stale (e.g. negative) entry now, write the new state through once committed
+        userCache.invalidate(key);
+        return writeQueue.submit(sql, ps -> {
+            ps.setBytes(1, uuidBytes);
+            ps.setString(2, username);
+            ps.setString(3, key);
+            ps.setString(4, hashedPassword);
+            ps.setBoolean(5, false); // Default to cracked for manual registration
+            ps.setString(6, ip);
+            ps.setLong(7, System.currentTimeMillis());
+            ps.setBytes(8, uuidBytes);
+            ps.setString(9, key);
+        }).handle((count, ex) -> {
+            if (ex != null) {
+                // Another server won the race between our NOT EXISTS and the unique index
+                if (WriteBehindQueue.isConstraintViolation(ex)) {
+                    return false;
+                }
+                throw new CompletionException(ex.getCause() != null ? ex.getCause() : ex);
             }
+            if (count > 0) {
+                userCache.put(key, Optional.of(new UserRecord(uuid, username, hashedPassword, false, ip)), userTtlMillis);
+                return true;
+            }
+            return false;
+        });
+    }
 
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, uuid.toString());
-                ps.setString(2, username);
-                ps.setString(3, hashedPassword);
-                ps.setBoolean(4, false); // Default to cracked for manual registration
-                ps.setString(5, ip);
-                ps.setString(6, hashedPassword);
-                ps.setString(7, ip);
-                ps.executeUpdate();
+    /**
+     * Inserts the chunk with multi-row statements in a single transaction on the writer connection.
+     * Users that already exist are ignored by the unique indexes rather than checked first.
+     */
+    @Override
+    public CompletableFuture<Integer> importUsers(List<UserRecord> users) {
+        long now = System.currentTimeMillis();
+        int added = 0;
+        try (Connection conn = engine.writer().getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement full = conn.prepareStatement(importSql(IMPORT_ROWS_PER_STATEMENT))) {
+                for (int start = 0; start < users.size(); start += IMPORT_ROWS_PER_STATEMENT) {
+                    List<UserRecord> rows = users.subList(start, Math.min(users.size(), start + IMPORT_ROWS_PER_STATEMENT));
+                    if (rows.size() == IMPORT_ROWS_PER_STATEMENT) {
+                        added += bindImport(full, rows, now).executeUpdate();
+                    } else {
+                        try (PreparedStatement tail = conn.prepareStatement(importSql(rows.size()))) {
+                            added += bindImport(tail, rows, now).executeUpdate();
+                        }
+                    }
+                }
+                conn.commit();
             } catch (SQLException e) {
-                e.printStackTrace();
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // Earlier lookups may have cached these names as unregistered
+        for (UserRecord user : users) {
+            userCache.invalidate(key(user.username()));
+        }
+        return CompletableFuture.completedFuture(added);
+    }
+
+    // Multi-row VALUES rather than a JDBC batch: one round trip per statement on MySQL, and the
+    // update count says exactly how many rows weren't ignored
+    private String importSql(int rows) {
+        StringBuilder sql = new StringBuilder(engine.isMySQL() ? "INSERT IGNORE" : "INSERT OR IGNORE")
+                .append(" INTO authify_users (uuid, username, username_key, password, premium, ip, created_at) VALUES ");
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?, ?)");
+        }
+        return sql.toString();
+    }
+
+    private static PreparedStatement bindImport(PreparedStatement ps, List<UserRecord> rows, long createdAt) throws SQLException {
+        int index = 1;
+        for (UserRecord user : rows) {
+            ps.setBytes(index++, UuidBytes.toBytes(user.uuid()));
+            ps.setString(index++, user.username());
+            ps.setString(index++, key(user.username()));
+            ps.setString(index++, user.passwordHash());
+            ps.setBoolean(index++, user.premium());
+            ps.setString(index++, user.ip());
+            ps.setLong(index++, createdAt);
+        }
+        return ps;
+    }
+
+    /**
+     * Records a successful login. Fire-and-forget; a lost timestamp isn't worth failing a login over.
+     */
+    @Override
+    public void recordLogin(UUID uuid, String ip) {
+        writeQueue.submit("UPDATE authify_users SET last_login = ?, ip = ? WHERE uuid = ?", ps -> {
+            ps.setLong(1, System.currentTimeMillis());
+            ps.setString(2, ip);
+            ps.setBytes(3, UuidBytes.toBytes(uuid));
+        }).exceptionally(ex -> {
+            debug("Could not record login for " + uuid + ": " + ex.getMessage());
+            return 0;
+        });
+    }
+
+    /**
+     * Replaces a password hash, but only if it still matches the one we read (so a concurrent
+     * password change isn't clobbered).
+     * @return true if the row was updated.
+     */
+    @Override
+    public CompletableFuture<Boolean> updatePasswordHash(String username, String oldHash, String newHash) {
+        String key = key(username);
+        return writeQueue.submit("UPDATE authify_users SET password = ? WHERE username_key = ? AND password = ?", ps -> {
+            ps.setString(1, newHash);
+            ps.setString(2, key);
+            ps.setString(3, oldHash);
+        }).thenApply(count -> {
+            if (count > 0) {
+                userCache.invalidate(key);
             }
+            return count > 0;
         });
     }
 
-    public CompletableFuture<String> getPasswordHash(String username) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection conn = dataSource.getConnection();
-                 PreparedStatement ps = conn.prepareStatement("SELECT password FROM authify_users WHERE username = ?")) {
-                ps.setString(1, username);
+    @Override
+    public CompletableFuture<Integer> forEachUsername(long createdSince, Consumer<String> action) {
+        String sql = "SELECT username_key FROM authify_users" + (createdSince > 0 ? " WHERE created_at >= ?" : "");
+        return executor.supply(() -> {
+            int count = 0;
+            try (Connection conn = engine.reader().getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                if (createdSince > 0) {
+                    ps.setLong(1, createdSince);
+                }
+                // Connector/J buffers the whole result unless asked to stream row by row
+                ps.setFetchSize(engine.isMySQL() ? Integer.MIN_VALUE : 1000);
                 try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        return rs.getString("password");
+                    while (rs.next()) {
+                        action.accept(rs.getString(1));
+                        count++;
                     }
                 }
             } catch (SQLException e) {
-                e.printStackTrace();
+                throw new CompletionException(e);
             }
-            return null;
+            return count;
         });
     }
 
+    /**
+     * Blocks until every queued write has been committed. Called on disable so no registrations are lost.
+     */
+    public void flushPendingWrites() {
+        if (writeQueue != null) {
+            int pending = writeQueue.getPendingCount();
+            if (pending > 0) {
+                logger.info("Flushing " + pending + " pending database write(s)...");
+            }
+            writeQueue.shutdown(10000);
+        }
+    }
+
+    private void debug(String message) {
+        if (debug) {
+            logger.info("[DEBUG] " + message);
+        }
+    }
+
+    /**
+     * Live Hikari counters (active, idle, waiting threads) of the pool serving lookups.
+     */
+    public HikariPoolMXBean getPoolStats() {
+        return engine.getPoolStats();
+    }
+
+    DatabaseEngine getEngine() {
+        return engine;
+    }
+
+    WriteBehindQueue getWriteQueue() {
+        return writeQueue;
+    }
+
+    public int getPendingWriteCount() {
+        return writeQueue.getPendingCount();
+    }
+
+    // Usernames are unique regardless of case
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    public ExpiringCache<String, Optional<UserRecord>> getUserCache() {
+        return userCache;
+    }
+
+    @Override
     public void close() {
-        if (dataSource != null) {
-            dataSource.close();
+        flushPendingWrites();
+        debug("User cache: " + userCache.describe());
+        if (engine != null) {
+            engine.close();
         }
     }
 }
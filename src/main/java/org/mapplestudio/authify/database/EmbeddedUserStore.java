@@ -0,0 +1,514 @@
+package org.mapplestudio.authify.database;
+
+import org.mapplestudio.authify.Authify;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * A {@link UserStore} for single servers that don't want a database. Every user lives in an
+ * in-memory index, so lookups never wait. Changes are appended to a memory-mapped log, which is
+ * replayed on startup; the log is rewritten with only the live records once it's mostly
+ * superseded entries.
+ * <p>
+ * Each record carries its length and a CRC, so a record torn by a crash is detected and dropped
+ * on the next start. A bad record with more data after it is corruption, not a torn write; the
+ * store then refuses to open rather than throw away every user recorded after it. Appends reach the OS immediately (they survive the process dying) and are
+ * forced to disk every {@code syncIntervalMillis}, like SQLite's {@code synchronous=NORMAL}.
+ */
+public final class EmbeddedUserStore implements UserStore {
+    private static final int MAGIC = 0x41555352; // "AUSR"
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER = 8;
+    // Payload length + CRC32C of the payload
+    private static final int RECORD_HEADER = 8;
+    private static final byte OP_PUT = 1;
+    private static final int GROWTH = 16 * 1024 * 1024;
+    private static final int MIN_COMPACT_BYTES = 4 * 1024 * 1024;
+
+    private record Entry(UserRecord user, long createdAt, long lastLogin, int size) {
+    }
+
+    private final Path file;
+    private final Logger logger;
+    private final double compactRatio;
+    private final Map<String, Entry> users = new ConcurrentHashMap<>();
+    private final Map<UUID, String> keysByUuid = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService maintenance;
+    // Guarded by this
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private long liveBytes;
+    private boolean dirty;
+    private volatile long compactions;
+
+    public EmbeddedUserStore(Authify plugin) {
+        this(plugin.getDataFolder().toPath().resolve(plugin.getConfig().getString("database.embedded.file-name", "users.log")),
+                plugin.getLogger(),
+                plugin.getConfig().getLong("database.embedded.sync-interval-ms", 1000),
+                plugin.getConfig().getDouble("database.embedded.compact-ratio", 2.0));
+    }
+
+    /**
+     * @param compactRatio rewrite the log once it's this many times the size of the live records
+     */
+    public EmbeddedUserStore(Path file, Logger logger, long syncIntervalMillis, double compactRatio) {
+        this.file = file;
+        this.logger = logger;
+        this.compactRatio = Math.max(1.5, compactRatio);
+        try {
+            open();
+        } catch (IOException e) {
+            if (channel != null) {
+                try {
+                    // Don't keep the file locked while the admin restores or moves it
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            throw new IllegalStateException("Could not open user log " + file + ": " + e.getMessage(), e);
+        }
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "authify-user-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(10, syncIntervalMillis);
+        maintenance.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Files.deleteIfExists(compactFile());
+        long start = System.nanoTime();
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE - GROWTH) {
+            throw new IOException("user log is too large (" + size + " bytes)");
+        }
+        if (size == 0) {
+            map(GROWTH, 0);
+            log.putInt(MAGIC).putInt(FORMAT_VERSION);
+            log.force();
+            return;
+        }
+        map((int) size, 0);
+        if (size < FILE_HEADER || log.getInt() != MAGIC) {
+            throw new IOException("not an Authify user log");
+        }
+        if (log.getInt() != FORMAT_VERSION) {
+            throw new IOException("unsupported user log version");
+        }
+        int records = replay();
+        logger.info("Loaded " + users.size() + " user(s) from " + records + " log record(s) in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+
+    private void map(int capacity, int position) throws IOException {
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        log.position(position);
+    }
+
+    private int replay() throws IOException {
+        int records = 0;
+        while (log.remaining() >= RECORD_HEADER) {
+            int start = log.position();
+            int length = log.getInt();
+            int checksum = log.getInt();
+            if (length == 0 && checksum == 0) {
+                // Unused space past the last record
+                log.position(start);
+                return records;
+            }
+            if (length <= 0 || length > log.remaining()) {
+                discardFrom(start, log.position());
+                return records;
+            }
+            ByteBuffer payload = log.slice(log.position(), length);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                discardFrom(start, log.position() + length);
+                return records;
+            }
+            apply(decode(payload.rewind(), RECORD_HEADER + length));
+            log.position(log.position() + length);
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Wipes a torn record at the end of the log so new appends start clean.
+     * @param end where the bad record ends, as far as its header can be trusted
+     * @throws IOException if anything but unused space follows it
+     */
+    private void discardFrom(int offset, int end) throws IOException {
+        for (int i = end; i < log.capacity(); i++) {
+            if (log.get(i) != 0) {
+                logger.severe("User log " + file.getFileName() + " has a corrupt record at offset " + offset
+                        + " with more records after it. Not discarding them:"
+                        + " restore the file from a backup, or move it aside to start with an empty user store");
+                throw new IOException("corrupt record at offset " + offset);
+            }
+        }
+        logger.warning("User log " + file.getFileName() + " ends with a partly written record at offset "
+                + offset + " (probably a crash), discarding it");
+        log.position(offset);
+        while (log.remaining() >= Long.BYTES) {
+            log.putLong(0);
+        }
+        while (log.hasRemaining()) {
+            log.put((byte) 0);
+        }
+        log.position(offset);
+        dirty = true;
+    }
+
+    private void apply(Entry entry) {
+        String key = key(entry.user().username());
+        Entry previous = users.put(key, entry);
+        keysByUuid.put(entry.user().uuid(), key);
+        liveBytes += entry.size() - (previous != null ? previous.size() : 0);
+    }
+
+    private synchronized void append(UserRecord user, long createdAt, long lastLogin) throws IOException {
+        byte[] payload = encode(user, createdAt, lastLogin);
+        int size = RECORD_HEADER + payload.length;
+        if (log.remaining() < size) {
+            if ((long) log.capacity() + size + GROWTH > Integer.MAX_VALUE) {
+                throw new IOException("user log is full");
+            }
+            map(log.capacity() + size + GROWTH, log.position());
+        }
+        log.putInt(payload.length).putInt(checksum(payload)).put(payload);
+        dirty = true;
+        apply(new Entry(user, createdAt, lastLogin, size));
+    }
+
+    private int checksum(byte[] payload) {
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(UserRecord user, long createdAt, long lastLogin) {
+        byte[] username = utf8(user.username());
+        byte[] passwordHash = utf8(user.passwordHash());
+        byte[] ip = utf8(user.ip());
+        ByteBuffer out = ByteBuffer.allocate(1 + 16 + 1 + 16 + 3 * Short.BYTES
+                + username.length + length(passwordHash) + length(ip));
+        out.put(OP_PUT);
+        out.putLong(user.uuid().getMostSignificantBits()).putLong(user.uuid().getLeastSignificantBits());
+        putString(out, username);
+        putString(out, passwordHash);
+        out.put((byte) (user.premium() ? 1 : 0));
+        putString(out, ip);
+        out.putLong(createdAt).putLong(lastLogin);
+        return out.array();
+    }
+
+    private static Entry decode(ByteBuffer in, int size) throws IOException {
+        try {
+            byte op = in.get();
+            if (op != OP_PUT) {
+                throw new IOException("unknown record type " + op);
+            }
+            UUID uuid = new UUID(in.getLong(), in.getLong());
+            String username = getString(in);
+            String passwordHash = getString(in);
+            boolean premium = in.get() != 0;
+            String ip = getString(in);
+            return new Entry(new UserRecord(uuid, username, passwordHash, premium, ip), in.getLong(), in.getLong(), size);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("malformed record", e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+
+    // Length-prefixed, -1 for null
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        out.putShort((short) (bytes != null ? bytes.length : -1));
+        if (bytes != null) {
+            out.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public CompletableFuture<UserRecord> loadUser(String username) {
+        return CompletableFuture.completedFuture(find(username));
+    }
+
+    // Memory is the source of truth, so there's nothing to reload from
+    @Override
+    public CompletableFuture<UserRecord> reloadUser(String username) {
+        return loadUser(username);
+    }
+
+    @Override
+    public Optional<UserRecord> getCachedUser(String username) {
+        return Optional.ofNullable(find(username));
+    }
+
+    // Skips the default's extra thenApply stage
+    @Override
+    public CompletableFuture<Boolean> isPremium(String username) {
+        UserRecord user = find(username);
+        return CompletableFuture.completedFuture(user != null ? user.premium() : null);
+    }
+
+    @Override
+    public CompletableFuture<String> getPasswordHash(String username) {
+        UserRecord user = find(username);
+        return CompletableFuture.completedFuture(user != null ? user.passwordHash() : null);
+    }
+
+    private UserRecord find(String username) {
+        Entry entry = users.get(key(username));
+        return entry != null ? entry.user() : null;
+    }
+
+    @Override
+    public CompletableFuture<Integer> forEachUsername(long createdSince, Consumer<String> action) {
+        int count = 0;
+        for (Map.Entry<String, Entry> entry : users.entrySet()) {
+            if (createdSince <= 0 || entry.getValue().createdAt() >= createdSince) {
+                action.accept(entry.getKey());
+                count++;
+            }
+        }
+        return CompletableFuture.completedFuture(count);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Boolean> registerUser(UUID uuid, String username, String hashedPassword, String ip) {
+        if (keysByUuid.containsKey(uuid) || users.containsKey(key(username))) {
+            return CompletableFuture.completedFuture(false);
+        }
+        try {
+            append(new UserRecord(uuid, username, hashedPassword, false, ip), System.currentTimeMillis(), 0);
+            return CompletableFuture.completedFuture(true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> importUsers(List<UserRecord> batch) {
+        long now = System.currentTimeMillis();
+        int added = 0;
+        try {
+            for (UserRecord user : batch) {
+                if (!keysByUuid.containsKey(user.uuid()) && !users.containsKey(key(user.username()))) {
+                    append(user, now, 0);
+                    added++;
+                }
+            }
+            // The importer checkpoints after each chunk, so the chunk must not be lost after that
+            log.force();
+            dirty = false;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.completedFuture(added);
+    }
+
+    @Override
+    public synchronized void recordLogin(UUID uuid, String ip) {
+        String key = keysByUuid.get(uuid);
+        Entry entry = key != null ? users.get(key) : null;
+        if (entry == null) {
+            return;
+        }
+        UserRecord user = entry.user();
+        try {
+            append(new UserRecord(uuid, user.username(), user.passwordHash(), user.premium(), ip),
+                    entry.createdAt(), System.currentTimeMillis());
+        } catch (IOException e) {
+            logger.warning("Could not record login for " + uuid + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Boolean> updatePasswordHash(String username, String oldHash, String newHash) {
+        Entry entry = users.get(key(username));
+        if (entry == null || !oldHash.equals(entry.user().passwordHash())) {
+            return CompletableFuture.completedFuture(false);
+        }
+        UserRecord user = entry.user();
+        try {
+            append(new UserRecord(user.uuid(), user.username(), newHash, user.premium(), user.ip()),
+                    entry.createdAt(), entry.lastLogin());
+            return CompletableFuture.completedFuture(true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void maintain() {
+        try {
+            sync();
+            boolean compact;
+            synchronized (this) {
+                compact = log.position() > MIN_COMPACT_BYTES && log.position() > liveBytes * compactRatio;
+            }
+            if (compact) {
+                compact();
+            }
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "User log maintenance failed", t);
+        }
+    }
+
+    private void sync() {
+        MappedByteBuffer toSync;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            toSync = log;
+        }
+        // msync can take a while; appends carry on meanwhile
+        toSync.force();
+    }
+
+    /**
+     * Rewrites the log with one record per user. The new log is fully written and forced before it
+     * replaces the old one, so a crash at any point leaves one complete log. Appends wait meanwhile;
+     * lookups don't.
+     */
+    public synchronized void compact() throws IOException {
+        long start = System.nanoTime();
+        int before = log.position();
+        Path temp = compactFile();
+        int size = FILE_HEADER;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION);
+            for (Entry entry : new ArrayList<>(users.values())) {
+                byte[] payload = encode(entry.user(), entry.createdAt(), entry.lastLogin());
+                if (buffer.remaining() < RECORD_HEADER + payload.length) {
+                    writeFully(out, buffer);
+                }
+                if (buffer.remaining() < RECORD_HEADER + payload.length) {
+                    buffer = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+                }
+                buffer.putInt(payload.length).putInt(checksum(payload)).put(payload);
+                size += RECORD_HEADER + payload.length;
+            }
+            writeFully(out, buffer);
+            out.force(true);
+        }
+
+        log.force();
+        channel.close();
+        boolean replaced = false;
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            replaced = true;
+        } catch (IOException e) {
+            // e.g. Windows refuses to replace a file that is still mapped; keep the old log
+            logger.warning("Could not replace the user log with the compacted one: " + e.getMessage());
+            Files.deleteIfExists(temp);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int position = replaced ? size : before;
+        map(Math.max((int) channel.size(), position + GROWTH), position);
+        if (replaced) {
+            liveBytes = size - FILE_HEADER;
+            compactions++;
+            logger.info("Compacted the user log from " + before / 1024 + "KB to " + size / 1024 + "KB in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private Path compactFile() {
+        return file.resolveSibling(file.getFileName() + ".compact");
+    }
+
+    public int getUserCount() {
+        return users.size();
+    }
+
+    public synchronized long getLogSize() {
+        return log.position();
+    }
+
+    public long getCompactionCount() {
+        return compactions;
+    }
+
+    // Usernames are unique regardless of case
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdown();
+        try {
+            maintenance.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            log.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warning("Could not close the user log: " + e.getMessage());
+            }
+        }
+    }
+}
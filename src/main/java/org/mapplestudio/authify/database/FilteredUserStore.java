@@ -0,0 +1,242 @@
+package org.mapplestudio.authify.database;
+
+import org.bukkit.scheduler.BukkitTask;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.utils.BloomFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Puts a Bloom filter of every registered username in front of another store, so pre-login lookups
+ * for names that were never registered (most of them, on a busy network) don't reach the database.
+ * Only lookups that may be answered from a cache are filtered; reloads always go through.
+ */
+public class FilteredUserStore implements UserStore {
+    // Users registered on other servers are found by creation time; allow for clocks that disagree
+    private static final long CLOCK_SKEW_MILLIS = 60_000L;
+
+    private final UserStore delegate;
+    private final Logger logger;
+    private final long expectedUsers;
+    private final double falsePositiveRate;
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    // Null until loaded; until then every lookup goes to the delegate
+    private volatile BloomFilter filter;
+    // The filter being loaded, so registrations during the load aren't missed
+    private volatile BloomFilter building;
+    // Held while publishing or replacing a filter and while adding a name, so no name can be added
+    // to neither the old filter nor the new one
+    private final Object handover = new Object();
+    // Names added since the load started; a resize restarts the build and must not lose them
+    private final List<String> addedDuringBuild = new ArrayList<>();
+    private volatile long refreshedFrom;
+    private BukkitTask refreshTask;
+
+    public FilteredUserStore(Authify plugin, UserStore delegate) {
+        this(delegate, plugin.getLogger(),
+                plugin.getConfig().getLong("username-filter.expected-users", 100000),
+                plugin.getConfig().getDouble("username-filter.false-positive-rate", 0.01));
+    }
+
+    public FilteredUserStore(UserStore delegate, Logger logger, long expectedUsers, double falsePositiveRate) {
+        this.delegate = delegate;
+        this.logger = logger;
+        this.expectedUsers = Math.max(1000, expectedUsers);
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Streams every username into a new filter and starts using it.
+     */
+    public CompletableFuture<Void> load() {
+        long start = System.currentTimeMillis();
+        return build(expectedUsers).thenCompose(built -> {
+            if (built.getInsertions() <= expectedUsers) {
+                return CompletableFuture.completedFuture(built);
+            }
+            // Over capacity the false-positive rate climbs quickly; size it for the real count
+            logger.info("More users than username-filter.expected-users (" + built.getInsertions() + "), resizing the filter");
+            return build(built.getInsertions() * 2);
+        }).thenAccept(built -> {
+            synchronized (handover) {
+                filter = built;
+                building = null;
+                addedDuringBuild.clear();
+            }
+            refreshedFrom = start - CLOCK_SKEW_MILLIS;
+            logger.info(String.format(Locale.ROOT, "Username filter: %d names in %dKB (%d hashes), expected false-positive rate %.2f%%, loaded in %dms",
+                    built.getInsertions(), built.getSizeBytes() / 1024, built.getHashCount(),
+                    built.getExpectedFalsePositiveRate() * 100, System.currentTimeMillis() - start));
+        }).exceptionally(ex -> {
+            synchronized (handover) {
+                building = null;
+                addedDuringBuild.clear();
+            }
+            logger.warning("Could not load the username filter, all lookups will query the database: " + ex.getMessage());
+            return null;
+        });
+    }
+
+    private CompletableFuture<BloomFilter> build(long capacity) {
+        BloomFilter next = new BloomFilter(capacity, falsePositiveRate);
+        synchronized (handover) {
+            building = next;
+            // They may not have reached the database yet, so the stream below could miss them
+            addedDuringBuild.forEach(next::put);
+        }
+        return delegate.forEachUsername(0, next::put).thenApply(count -> next);
+    }
+
+    /**
+     * Adds users registered elsewhere (other servers sharing the database) on an async timer.
+     */
+    public void startRefresh(Authify plugin, long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        long ticks = intervalSeconds * 20L;
+        refreshTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::refresh, ticks, ticks);
+    }
+
+    private void refresh() {
+        BloomFilter current = filter;
+        if (current == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        delegate.forEachUsername(refreshedFrom, current::put).thenAccept(count -> refreshedFrom = start - CLOCK_SKEW_MILLIS)
+                .exceptionally(ex -> {
+                    logger.warning("Could not refresh the username filter: " + ex.getMessage());
+                    return null;
+                }).join();
+    }
+
+    private boolean definitelyUnknown(String username) {
+        BloomFilter current = filter;
+        if (current != null && !current.mightContain(key(username))) {
+            skipped.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private <T> CompletableFuture<T> countFalsePositive(CompletableFuture<T> lookup) {
+        return lookup.thenApply(result -> {
+            if (result == null && filter != null) {
+                falsePositives.increment();
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<UserRecord> loadUser(String username) {
+        if (definitelyUnknown(username)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return countFalsePositive(delegate.loadUser(username));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> isPremium(String username) {
+        if (definitelyUnknown(username)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return countFalsePositive(delegate.isPremium(username));
+    }
+
+    @Override
+    public Optional<UserRecord> getCachedUser(String username) {
+        return definitelyUnknown(username) ? Optional.empty() : delegate.getCachedUser(username);
+    }
+
+    @Override
+    public CompletableFuture<UserRecord> reloadUser(String username) {
+        return delegate.reloadUser(username);
+    }
+
+    @Override
+    public CompletableFuture<String> getPasswordHash(String username) {
+        return delegate.getPasswordHash(username);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> registerUser(UUID uuid, String username, String hashedPassword, String ip) {
+        // Added up front: a false positive until the insert commits is harmless, a false negative isn't
+        add(username);
+        return delegate.registerUser(uuid, username, hashedPassword, ip);
+    }
+
+    @Override
+    public CompletableFuture<Integer> importUsers(List<UserRecord> users) {
+        for (UserRecord user : users) {
+            add(user.username());
+        }
+        return delegate.importUsers(users);
+    }
+
+    private void add(String username) {
+        String key = key(username);
+        synchronized (handover) {
+            if (filter != null) {
+                filter.put(key);
+            }
+            if (building != null) {
+                building.put(key);
+                addedDuringBuild.add(key);
+            }
+        }
+    }
+
+    @Override
+    public void recordLogin(UUID uuid, String ip) {
+        delegate.recordLogin(uuid, ip);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updatePasswordHash(String username, String oldHash, String newHash) {
+        return delegate.updatePasswordHash(username, oldHash, newHash);
+    }
+
+    @Override
+    public CompletableFuture<Integer> forEachUsername(long createdSince, Consumer<String> action) {
+        return delegate.forEachUsername(createdSince, action);
+    }
+
+    public UserStore getDelegate() {
+        return delegate;
+    }
+
+    public BloomFilter getFilter() {
+        return filter;
+    }
+
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public void close() {
+        if (refreshTask != null) {
+            refreshTask.cancel();
+        }
+        delegate.close();
+    }
+}
@@ -0,0 +1,55 @@
+package org.mapplestudio.authify.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import javax.sql.DataSource;
+
+/**
+ * MySQL handles concurrent writers itself, so reads and writes share one pool.
+ */
+public class MySQLEngine implements DatabaseEngine {
+    private final HikariDataSource dataSource;
+
+    public MySQLEngine(String host, int port, String database, String username, String password, int poolSize) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("authify-mysql");
+        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.setMaximumPoolSize(poolSize);
+
+        this.dataSource = new HikariDataSource(config);
+    }
+
+    @Override
+    public DataSource reader() {
+        return dataSource;
+    }
+
+    @Override
+    public DataSource writer() {
+        return dataSource;
+    }
+
+    @Override
+    public boolean isMySQL() {
+        return true;
+    }
+
+    @Override
+    public HikariPoolMXBean getPoolStats() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    @Override
+    public void close() {
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+}
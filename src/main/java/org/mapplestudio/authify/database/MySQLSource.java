@@ -1,34 +0,0 @@
-package org.mapplestudio.authify.database;
-
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
-
-import java.sql.Connection;
-import java.sql.SQLException;
-
-public class MySQLSource {
-    private final HikariDataSource dataSource;
-
-    public MySQLSource(String host, int port, String database, String username, String password) {
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database);
-        config.setUsername(username);
-        config.setPassword(password);
-        config.addDataSourceProperty("cachePrepStmts", "true");
-        config.addDataSourceProperty("prepStmtCacheSize", "250");
-        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-        config.setMaximumPoolSize(10);
-        
-        this.dataSource = new HikariDataSource(config);
-    }
-
-    public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
-    }
-
-    public void close() {
-        if (dataSource != null) {
-            dataSource.close();
-        }
-    }
-}
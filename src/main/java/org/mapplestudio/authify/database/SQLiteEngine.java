@@ -0,0 +1,108 @@
+package org.mapplestudio.authify.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteDataSource;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * SQLite allows one writer at a time, so instead of letting a pool of connections fight over the
+ * lock (SQLITE_BUSY) all mutations share a single writer connection, used by the write-behind
+ * queue's thread. The database runs in WAL mode, where readers don't block the writer or each
+ * other, and lookups are served by a pool of read-only connections.
+ */
+public class SQLiteEngine implements DatabaseEngine {
+    private final Logger logger;
+    private final HikariDataSource writer;
+    private final HikariDataSource readers;
+
+    /**
+     * @param synchronous {@code NORMAL} is safe in WAL mode (a power cut can only lose the last
+     *                    commits, never corrupt the file) and skips the fsync on every commit
+     */
+    public SQLiteEngine(File file, int readPoolSize, String synchronous, int cacheSizeKb, int mmapSizeMb,
+                        int busyTimeoutMillis, Logger logger) {
+        this.logger = logger;
+        String url = "jdbc:sqlite:" + file.getAbsolutePath();
+
+        SQLiteConfig writeConfig = pragmas(synchronous, cacheSizeKb, mmapSizeMb, busyTimeoutMillis);
+        writeConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        // Opened first: creates the file and switches it to WAL before any reader connects
+        this.writer = pool("authify-sqlite-writer", url, writeConfig, 1, false);
+
+        SQLiteConfig readConfig = pragmas(synchronous, cacheSizeKb, mmapSizeMb, busyTimeoutMillis);
+        readConfig.setReadOnly(true);
+        this.readers = pool("authify-sqlite-reader", url, readConfig, Math.max(1, readPoolSize), true);
+    }
+
+    private SQLiteConfig pragmas(String synchronous, int cacheSizeKb, int mmapSizeMb, int busyTimeoutMillis) {
+        SQLiteConfig config = new SQLiteConfig();
+        try {
+            config.setSynchronous(SQLiteConfig.SynchronousMode.valueOf(synchronous.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            logger.warning("Unknown SQLite synchronous mode '" + synchronous + "', using NORMAL");
+            config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        }
+        // A negative cache_size is in KiB rather than pages
+        config.setCacheSize(-Math.max(0, cacheSizeKb));
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(Math.max(0, mmapSizeMb) * 1024L * 1024L));
+        config.setTempStore(SQLiteConfig.TempStore.MEMORY);
+        config.setBusyTimeout(busyTimeoutMillis);
+        return config;
+    }
+
+    private static HikariDataSource pool(String name, String url, SQLiteConfig config, int size, boolean readOnly) {
+        SQLiteDataSource source = new SQLiteDataSource(config);
+        source.setUrl(url);
+        HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName(name);
+        hikari.setDataSource(source);
+        hikari.setMaximumPoolSize(size);
+        hikari.setMinimumIdle(size);
+        // Hikari re-applies this to every connection, and SQLite refuses to change it once open
+        hikari.setReadOnly(readOnly);
+        return new HikariDataSource(hikari);
+    }
+
+    @Override
+    public DataSource reader() {
+        return readers;
+    }
+
+    @Override
+    public DataSource writer() {
+        return writer;
+    }
+
+    @Override
+    public boolean isMySQL() {
+        return false;
+    }
+
+    @Override
+    public HikariPoolMXBean getPoolStats() {
+        return readers.getHikariPoolMXBean();
+    }
+
+    @Override
+    public void close() {
+        readers.close();
+        try (Connection conn = writer.getConnection(); Statement st = conn.createStatement()) {
+            // Fold the WAL back into the main file so it doesn't linger at its peak size
+            st.execute("PRAGMA optimize");
+            st.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        } catch (SQLException e) {
+            logger.warning("Could not checkpoint the SQLite WAL: " + e.getMessage());
+        }
+        writer.close();
+    }
+}
@@ -1,23 +0,0 @@
-package org.mapplestudio.authify.database;
-
-import java.io.File;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
-
-public class SQLiteSource {
-    private final String url;
-
-    public SQLiteSource(File file) {
-        this.url = "jdbc:sqlite:" + file.getAbsolutePath();
-        try {
-            Class.forName("org.sqlite.JDBC");
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException("Failed to load SQLite driver", e);
-        }
-    }
-
-    public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url);
-    }
-}
@@ -0,0 +1,340 @@
+package org.mapplestudio.authify.database;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Brings the schema up to date by applying numbered migrations in order. Applied versions are
+ * recorded in {@code authify_schema_version}; every migration can be re-run safely if the server
+ * died half way through it.
+ */
+public class SchemaMigrator {
+    @FunctionalInterface
+    private interface Step {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private record Migration(int version, String description, Step step) {
+    }
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+
+    private final DataSource dataSource;
+    private final boolean mysql;
+    private final Logger logger;
+    private final int batchSize;
+    private final List<Migration> migrations = List.of(
+            new Migration(1, "create users table", this::createUsersTable),
+            new Migration(2, "binary uuid and unique username key", this::rebuildUsersTable),
+            new Migration(3, "index users by ip", this::indexIp),
+            new Migration(4, "add created_at and last_login", this::addTimestamps),
+            new Migration(5, "shared sessions", this::createSessionsTable),
+            new Migration(6, "index users by created_at", this::indexCreatedAt),
+            new Migration(7, "audit log", this::createAuditTable)
+    );
+
+    public SchemaMigrator(DataSource dataSource, boolean mysql, Logger logger, int batchSize) {
+        this.dataSource = dataSource;
+        this.mysql = mysql;
+        this.logger = logger;
+        this.batchSize = Math.max(100, batchSize);
+    }
+
+    public int getLatestVersion() {
+        return migrations.get(migrations.size() - 1).version();
+    }
+
+    /**
+     * Applies every migration newer than the recorded version.
+     * @throws SQLException if one fails; later migrations are not attempted.
+     */
+    public void migrate() throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("CREATE TABLE IF NOT EXISTS authify_schema_version (" +
+                        "version INT PRIMARY KEY, " +
+                        "description VARCHAR(128) NOT NULL, " +
+                        "applied_at BIGINT NOT NULL" +
+                        ")");
+            }
+            int current = getCurrentVersion(conn);
+            for (Migration migration : migrations) {
+                if (migration.version() <= current) {
+                    continue;
+                }
+                logger.info("Applying database migration " + migration.version() + ": " + migration.description());
+                long start = System.currentTimeMillis();
+                migration.step().apply(conn);
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "INSERT INTO authify_schema_version (version, description, applied_at) VALUES (?, ?, ?)")) {
+                    ps.setInt(1, migration.version());
+                    ps.setString(2, migration.description());
+                    ps.setLong(3, System.currentTimeMillis());
+                    ps.executeUpdate();
+                }
+                if (!conn.getAutoCommit()) {
+                    conn.commit();
+                }
+                logger.info("Migration " + migration.version() + " done in " + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+    }
+
+    private int getCurrentVersion(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MAX(version) FROM authify_schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    // The original layout, so fresh installs and old installs take the same path from here on
+    private void createUsersTable(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS authify_users (" +
+                    "uuid VARCHAR(36) PRIMARY KEY, " +
+                    "username VARCHAR(16) NOT NULL, " +
+                    "password VARCHAR(255), " +
+                    "premium BOOLEAN DEFAULT FALSE, " +
+                    "ip VARCHAR(45)" +
+                    ")");
+        }
+    }
+
+    /**
+     * Moves the old table aside as {@code authify_users_legacy} and copies it, in batches, into a new
+     * table keyed by a 16-byte uuid with a unique lower-case username. The legacy table is kept so
+     * nothing is lost; rows whose names only differ by case stay behind in it and are logged.
+     * An empty table (a fresh install) is simply replaced, leaving no legacy table behind.
+     */
+    private void rebuildUsersTable(Connection conn) throws SQLException {
+        if (!tableExists(conn, "authify_users_legacy")) {
+            if (columnExists(conn, "authify_users", "username_key")) {
+                return;
+            }
+            boolean empty;
+            try (Statement st = conn.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT 1 FROM authify_users LIMIT 1")) {
+                empty = !rs.next();
+            }
+            try (Statement st = conn.createStatement()) {
+                if (empty) {
+                    st.executeUpdate("DROP TABLE authify_users");
+                    createKeyedUsersTable(conn);
+                    return;
+                }
+                st.executeUpdate("ALTER TABLE authify_users RENAME TO authify_users_legacy");
+            }
+        }
+        createKeyedUsersTable(conn);
+
+        long total;
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM authify_users_legacy")) {
+            total = rs.next() ? rs.getLong(1) : 0;
+        }
+        if (total == 0) {
+            return;
+        }
+        logger.info("Copying " + total + " user(s) into the new table...");
+
+        // Re-running after a crash just skips rows that were already copied
+        String insert = (mysql ? "INSERT IGNORE" : "INSERT OR IGNORE") +
+                " INTO authify_users (uuid, username, username_key, password, premium, ip) VALUES (?, ?, ?, ?, ?, ?)";
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement select = conn.prepareStatement(
+                "SELECT uuid, username, password, premium, ip FROM authify_users_legacy WHERE uuid > ? ORDER BY uuid LIMIT ?");
+             PreparedStatement ps = conn.prepareStatement(insert)) {
+            String lastUuid = "";
+            long read = 0;
+            long copied = 0;
+            long skipped = 0;
+            long lastReport = System.currentTimeMillis();
+            while (true) {
+                select.setString(1, lastUuid);
+                select.setInt(2, batchSize);
+                // Rows read ends the loop; rows batched decides whether there is anything to insert
+                int rows = 0;
+                int batched = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastUuid = rs.getString("uuid");
+                        String username = rs.getString("username");
+                        UUID uuid;
+                        try {
+                            uuid = UUID.fromString(lastUuid);
+                        } catch (IllegalArgumentException e) {
+                            logger.warning("Not migrating " + username + ": invalid uuid '" + lastUuid + "'");
+                            skipped++;
+                            continue;
+                        }
+                        ps.setBytes(1, UuidBytes.toBytes(uuid));
+                        ps.setString(2, username);
+                        ps.setString(3, username.toLowerCase(Locale.ROOT));
+                        ps.setString(4, rs.getString("password"));
+                        ps.setBoolean(5, rs.getBoolean("premium"));
+                        ps.setString(6, rs.getString("ip"));
+                        ps.addBatch();
+                        batched++;
+                    }
+                }
+                if (rows == 0) {
+                    break;
+                }
+                read += rows;
+                if (batched > 0) {
+                    int[] counts = ps.executeBatch();
+                    conn.commit();
+                    for (int count : counts) {
+                        // 0: ignored as a duplicate
+                        if (count == 0) {
+                            skipped++;
+                        } else {
+                            copied++;
+                        }
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= PROGRESS_INTERVAL_MILLIS) {
+                    logger.info("Migrated " + copied + " users, " + read + "/" + total + " read (" + (read * 100 / total) + "%)");
+                    lastReport = now;
+                }
+            }
+            logger.info("Migrated " + copied + "/" + total + " users");
+            if (skipped > 0) {
+                logger.warning(skipped + " user(s) were not migrated (duplicate name in a different case, or already copied); "
+                        + "they remain in authify_users_legacy");
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void createKeyedUsersTable(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS authify_users (" +
+                    "uuid " + (mysql ? "BINARY(16)" : "BLOB") + " NOT NULL PRIMARY KEY, " +
+                    "username VARCHAR(16) NOT NULL, " +
+                    "username_key VARCHAR(16) NOT NULL UNIQUE, " +
+                    "password VARCHAR(255), " +
+                    "premium BOOLEAN DEFAULT FALSE, " +
+                    "ip VARCHAR(45)" +
+                    ")");
+        }
+    }
+
+    private void indexIp(Connection conn) throws SQLException {
+        if (indexExists(conn, "authify_users", "idx_authify_users_ip")) {
+            return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE INDEX idx_authify_users_ip ON authify_users (ip)");
+        }
+    }
+
+    private void addTimestamps(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            if (!columnExists(conn, "authify_users", "created_at")) {
+                st.executeUpdate("ALTER TABLE authify_users ADD COLUMN created_at BIGINT");
+            }
+            if (!columnExists(conn, "authify_users", "last_login")) {
+                st.executeUpdate("ALTER TABLE authify_users ADD COLUMN last_login BIGINT");
+            }
+        }
+    }
+
+    /**
+     * Every change to {@code authify_sessions} bumps the single counter row in the same transaction
+     * and stamps the row with the new value, so servers can poll for "everything after version N".
+     */
+    private void createSessionsTable(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS authify_sessions (" +
+                    "uuid " + (mysql ? "BINARY(16)" : "BLOB") + " NOT NULL PRIMARY KEY, " +
+                    "ip VARCHAR(45) NOT NULL, " +
+                    "expires_at BIGINT NOT NULL, " +
+                    "owner VARCHAR(36) NOT NULL, " +
+                    "version BIGINT NOT NULL" +
+                    ")");
+            if (!indexExists(conn, "authify_sessions", "idx_authify_sessions_version")) {
+                st.executeUpdate("CREATE INDEX idx_authify_sessions_version ON authify_sessions (version)");
+            }
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS authify_session_version (" +
+                    "id INT PRIMARY KEY, " +
+                    "version BIGINT NOT NULL" +
+                    ")");
+            st.executeUpdate((mysql ? "INSERT IGNORE" : "INSERT OR IGNORE") +
+                    " INTO authify_session_version (id, version) VALUES (1, 0)");
+        }
+    }
+
+    // For picking up users registered on other servers since the last look
+    private void indexCreatedAt(Connection conn) throws SQLException {
+        if (indexExists(conn, "authify_users", "idx_authify_users_created_at")) {
+            return;
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE INDEX idx_authify_users_created_at ON authify_users (created_at)");
+        }
+    }
+
+    // Append-only; looked up by player name or address when investigating
+    private void createAuditTable(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS authify_audit (" +
+                    (mysql ? "id BIGINT AUTO_INCREMENT PRIMARY KEY, " : "id INTEGER PRIMARY KEY, ") +
+                    "created_at BIGINT NOT NULL, " +
+                    "type VARCHAR(24) NOT NULL, " +
+                    "username VARCHAR(16), " +
+                    "uuid " + (mysql ? "BINARY(16)" : "BLOB") + ", " +
+                    "ip VARCHAR(45), " +
+                    "detail VARCHAR(255)" +
+                    ")");
+            if (!indexExists(conn, "authify_audit", "idx_authify_audit_username")) {
+                st.executeUpdate("CREATE INDEX idx_authify_audit_username ON authify_audit (username, created_at)");
+            }
+            if (!indexExists(conn, "authify_audit", "idx_authify_audit_ip")) {
+                st.executeUpdate("CREATE INDEX idx_authify_audit_ip ON authify_audit (ip, created_at)");
+            }
+        }
+    }
+
+    private boolean tableExists(Connection conn, String table) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getTables(conn.getCatalog(), null, table, null)) {
+            return rs.next();
+        }
+    }
+
+    private boolean columnExists(Connection conn, String table, String column) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getColumns(conn.getCatalog(), null, table, column)) {
+            return rs.next();
+        }
+    }
+
+    private boolean indexExists(Connection conn, String table, String index) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        try (ResultSet rs = meta.getIndexInfo(conn.getCatalog(), null, table, false, false)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+package org.mapplestudio.authify.database;
+
+import org.mapplestudio.authify.audit.AuditEvent;
+import org.mapplestudio.authify.audit.AuditSink;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Writes each batch to {@code authify_audit} as one JDBC batch in one transaction. The connection
+ * is only borrowed for the batch, so on SQLite the single writer is free in between.
+ */
+public class SqlAuditSink implements AuditSink {
+    private static final String INSERT =
+            "INSERT INTO authify_audit (created_at, type, username, uuid, ip, detail) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final int MAX_DETAIL_LENGTH = 255;
+
+    private final DataSource dataSource;
+    private Connection connection;
+    private PreparedStatement statement;
+
+    public SqlAuditSink(DatabaseManager database) {
+        this.dataSource = database.getEngine().writer();
+    }
+
+    @Override
+    public void write(AuditEvent event) throws IOException {
+        try {
+            if (statement == null) {
+                connection = dataSource.getConnection();
+                connection.setAutoCommit(false);
+                statement = connection.prepareStatement(INSERT);
+            }
+            statement.setLong(1, event.getTimestamp());
+            statement.setString(2, event.getType().name());
+            statement.setString(3, event.getUsername());
+            if (event.getUuid() != null) {
+                statement.setBytes(4, UuidBytes.toBytes(event.getUuid()));
+            } else {
+                statement.setNull(4, Types.BINARY);
+            }
+            statement.setString(5, event.getIp());
+            String detail = event.getDetail();
+            statement.setString(6, detail != null && detail.length() > MAX_DETAIL_LENGTH ? detail.substring(0, MAX_DETAIL_LENGTH) : detail);
+            statement.addBatch();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (statement == null) {
+            return;
+        }
+        try {
+            statement.executeBatch();
+            connection.commit();
+            release();
+        } catch (SQLException e) {
+            rollback();
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void rollback() {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // The connection is being dropped anyway
+            }
+        }
+        release();
+    }
+
+    private void release() {
+        try {
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                connection.setAutoCommit(true);
+                connection.close();
+            }
+        } catch (SQLException ignored) {
+            // Already broken; the pool replaces it
+        } finally {
+            statement = null;
+            connection = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        rollback();
+    }
+}
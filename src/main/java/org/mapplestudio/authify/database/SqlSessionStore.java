@@ -0,0 +1,155 @@
+package org.mapplestudio.authify.database;
+
+import org.bukkit.scheduler.BukkitTask;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.managers.SessionStore;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Grants shared through the {@code authify_sessions} table, for servers behind one proxy that use
+ * the same database. Lookups are answered from a local copy that is kept up to date by polling for
+ * rows with a newer version than the last one seen, so a login elsewhere is honoured here at most
+ * one poll interval (plus the write-behind delay) later.
+ */
+public class SqlSessionStore implements SessionStore {
+    private static final String BUMP_VERSION = "UPDATE authify_session_version SET version = version + 1 WHERE id = 1";
+    private static final long CLEANUP_INTERVAL_MILLIS = 10 * 60_000L;
+    // Expired rows are kept a while so every server has polled the expiry before it's deleted
+    private static final long CLEANUP_AGE_MILLIS = 60 * 60_000L;
+
+    private final DatabaseManager database;
+    private final Logger logger;
+    private final long pollIntervalMillis;
+    // Identifies this server's writes, so a quit here doesn't cut short a login on another server
+    private final String owner = UUID.randomUUID().toString();
+    private final Map<UUID, Grant> grants = new ConcurrentHashMap<>();
+    // Poll thread only
+    private long lastVersion;
+    private long lastCleanup = System.currentTimeMillis();
+    private boolean failing;
+    private BukkitTask pollTask;
+
+    public SqlSessionStore(Authify plugin, DatabaseManager database) {
+        this(database, plugin.getLogger(), plugin.getConfig().getLong("sessions.poll-interval-ms", 1000));
+    }
+
+    public SqlSessionStore(DatabaseManager database, Logger logger, long pollIntervalMillis) {
+        this.database = database;
+        this.logger = logger;
+        this.pollIntervalMillis = Math.max(50, pollIntervalMillis);
+    }
+
+    /**
+     * Loads the current grants and keeps polling on an async timer.
+     */
+    public void start(Authify plugin) {
+        long ticks = Math.max(1, pollIntervalMillis / 50);
+        pollTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::poll, 0L, ticks);
+    }
+
+    @Override
+    public void publish(UUID uuid, String ip, long expiresAt) {
+        grants.put(uuid, new Grant(ip, expiresAt, owner));
+        byte[] uuidBytes = UuidBytes.toBytes(uuid);
+        write(uuid, new WriteBehindQueue.Write(
+                "REPLACE INTO authify_sessions (uuid, ip, expires_at, owner, version) " +
+                        "SELECT ?, ?, ?, ?, version FROM authify_session_version WHERE id = 1", ps -> {
+                    ps.setBytes(1, uuidBytes);
+                    ps.setString(2, ip);
+                    ps.setLong(3, expiresAt);
+                    ps.setString(4, owner);
+                }));
+    }
+
+    @Override
+    public void release(UUID uuid, long expiresAt) {
+        grants.computeIfPresent(uuid, (key, grant) -> grant.owner().equals(owner)
+                ? new Grant(grant.ip(), Math.min(grant.expiresAt(), expiresAt), owner) : grant);
+        byte[] uuidBytes = UuidBytes.toBytes(uuid);
+        write(uuid, new WriteBehindQueue.Write(
+                "UPDATE authify_sessions SET expires_at = ?, " +
+                        "version = (SELECT version FROM authify_session_version WHERE id = 1) " +
+                        "WHERE uuid = ? AND owner = ? AND expires_at > ?", ps -> {
+                    ps.setLong(1, expiresAt);
+                    ps.setBytes(2, uuidBytes);
+                    ps.setString(3, owner);
+                    ps.setLong(4, expiresAt);
+                }));
+    }
+
+    // The bump and the change commit together, so versions become visible in order
+    private void write(UUID uuid, WriteBehindQueue.Write change) {
+        database.getWriteQueue().submitAll(List.of(new WriteBehindQueue.Write(BUMP_VERSION, ps -> { }), change))
+                .exceptionally(ex -> {
+                    logger.warning("Could not save the session of " + uuid + ": " + ex.getMessage());
+                    return 0;
+                });
+    }
+
+    @Override
+    public Grant get(UUID uuid) {
+        Grant grant = grants.get(uuid);
+        return grant != null && grant.expiresAt() > System.currentTimeMillis() ? grant : null;
+    }
+
+    /**
+     * Applies every change made since the last poll. Public so it can be driven without a scheduler.
+     */
+    public synchronized void poll() {
+        long now = System.currentTimeMillis();
+        try (Connection conn = database.getEngine().reader().getConnection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "SELECT uuid, ip, expires_at, owner, version FROM authify_sessions WHERE version > ? ORDER BY version")) {
+            ps.setLong(1, lastVersion);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    UUID uuid = UuidBytes.fromBytes(rs.getBytes("uuid"));
+                    long expiresAt = rs.getLong("expires_at");
+                    if (expiresAt > now) {
+                        grants.put(uuid, new Grant(rs.getString("ip"), expiresAt, rs.getString("owner")));
+                    } else {
+                        grants.remove(uuid);
+                    }
+                    lastVersion = rs.getLong("version");
+                }
+            }
+            if (failing) {
+                logger.info("Shared sessions are being read again");
+                failing = false;
+            }
+        } catch (SQLException e) {
+            if (!failing) {
+                logger.warning("Could not read shared sessions: " + e.getMessage());
+                failing = true;
+            }
+        }
+        grants.values().removeIf(grant -> grant.expiresAt() <= now);
+
+        if (now - lastCleanup >= CLEANUP_INTERVAL_MILLIS) {
+            lastCleanup = now;
+            database.getWriteQueue().submit("DELETE FROM authify_sessions WHERE expires_at < ?",
+                    ps -> ps.setLong(1, now - CLEANUP_AGE_MILLIS));
+        }
+    }
+
+    @Override
+    public int size() {
+        return grants.size();
+    }
+
+    @Override
+    public void close() {
+        if (pollTask != null) {
+            pollTask.cancel();
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.mapplestudio.authify.database;
+
+import java.util.UUID;
+
+/**
+ * One row of {@code authify_users}, loaded in a single query.
+ */
+public record UserRecord(UUID uuid, String username, String passwordHash, boolean premium, String ip) {
+}
@@ -0,0 +1,78 @@
+package org.mapplestudio.authify.database;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Registered players. Usernames are matched regardless of case. Futures may complete on a
+ * database thread, or immediately when the answer is already in memory.
+ */
+public interface UserStore {
+    /**
+     * @return the record, or null if the user isn't registered.
+     */
+    CompletableFuture<UserRecord> loadUser(String username);
+
+    /**
+     * Like {@link #loadUser(String)} but never answers from a cache that could be stale, e.g. before
+     * checking a password that may have been changed on another server.
+     */
+    CompletableFuture<UserRecord> reloadUser(String username);
+
+    /**
+     * @return the record, {@code Optional.empty()} if the user is known not to exist,
+     * or null if that can't be answered without a query.
+     */
+    Optional<UserRecord> getCachedUser(String username);
+
+    /**
+     * @return true if premium, false if cracked, null if user not found.
+     */
+    default CompletableFuture<Boolean> isPremium(String username) {
+        return loadUser(username).thenApply(user -> user == null ? null : user.premium());
+    }
+
+    default CompletableFuture<String> getPasswordHash(String username) {
+        return reloadUser(username).thenApply(user -> user == null ? null : user.passwordHash());
+    }
+
+    /**
+     * Registers a cracked user, unless the UUID or username is already taken.
+     * @return true once the record is stored, false if the user was already registered.
+     */
+    CompletableFuture<Boolean> registerUser(UUID uuid, String username, String hashedPassword, String ip);
+
+    /**
+     * Stores a chunk of users from another plugin in one transaction, skipping any whose UUID or
+     * username is already taken, so a chunk can safely be imported twice. Unlike the other writes
+     * this runs on the calling thread and bypasses any write queue.
+     * @return how many users were added
+     */
+    CompletableFuture<Integer> importUsers(List<UserRecord> users);
+
+    /**
+     * Records a successful login. Fire-and-forget.
+     */
+    void recordLogin(UUID uuid, String ip);
+
+    /**
+     * Replaces a password hash, but only if it still matches the one we read.
+     * @return true if it was replaced.
+     */
+    CompletableFuture<Boolean> updatePasswordHash(String username, String oldHash, String newHash);
+
+    /**
+     * Streams the lower-case name of every user created at or after {@code createdSince} (0 for
+     * everyone, including users from before creation times were recorded) without loading whole rows.
+     * @return how many names were passed to {@code action}
+     */
+    CompletableFuture<Integer> forEachUsername(long createdSince, Consumer<String> action);
+
+    /**
+     * Makes every accepted write durable and releases the storage.
+     */
+    void close();
+}
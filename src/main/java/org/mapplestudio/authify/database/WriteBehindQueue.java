@@ -0,0 +1,221 @@
+package org.mapplestudio.authify.database;
+
+import org.sqlite.SQLiteErrorCode;
+import org.sqlite.SQLiteException;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Write-behind queue for database mutations. Pending statements are grouped into a single
+ * transaction (one JDBC batch per run of identical SQL) every few milliseconds or every
+ * {@code batchSize} rows, whichever comes first. Each future completes with the row's update
+ * count only after the transaction holding it has committed.
+ */
+public class WriteBehindQueue {
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement ps) throws SQLException;
+    }
+
+    public record Write(String sql, Binder binder) {
+    }
+
+    private record PendingWrite(List<Write> writes, CompletableFuture<Integer> future) {
+    }
+
+    private final DataSource dataSource;
+    private final Logger logger;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    // Held while checking 'running' and queueing, and while clearing it, so no write can be queued
+    // after the writer has decided there is nothing left
+    private final Object submitLock = new Object();
+    private volatile boolean running = true;
+
+    public WriteBehindQueue(DataSource dataSource, Logger logger, int batchSize, long flushIntervalMillis) {
+        this.dataSource = dataSource;
+        this.logger = logger;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMillis));
+        this.thread = new Thread(this::run, "authify-db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public CompletableFuture<Integer> submit(String sql, Binder binder) {
+        return submitAll(List.of(new Write(sql, binder)));
+    }
+
+    /**
+     * Queues statements that must commit together, in order, in the same transaction.
+     * The future completes with the last statement's update count.
+     */
+    public CompletableFuture<Integer> submitAll(List<Write> writes) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        PendingWrite write = new PendingWrite(List.copyOf(writes), future);
+        synchronized (submitLock) {
+            if (running) {
+                queue.add(write);
+                return future;
+            }
+        }
+        future.completeExceptionally(new IllegalStateException("Write-behind queue is shut down"));
+        return future;
+    }
+
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Give concurrent writers a moment to join this transaction
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                // Shutdown is signalled through 'running', keep draining
+            } catch (Throwable t) {
+                logger.log(Level.SEVERE, "Unexpected error in database writer", t);
+                batch.forEach(write -> write.future().completeExceptionally(t));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<PendingWrite> batch) {
+        List<Write> statements = new ArrayList<>(batch.size());
+        int[] lastStatement = new int[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            statements.addAll(batch.get(i).writes());
+            lastStatement[i] = statements.size() - 1;
+        }
+        int[] counts = new int[statements.size()];
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                int start = 0;
+                while (start < statements.size()) {
+                    // One JDBC batch per run of identical statements, keeping submission order
+                    String sql = statements.get(start).sql();
+                    int end = start;
+                    while (end < statements.size() && statements.get(end).sql().equals(sql)) {
+                        end++;
+                    }
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        for (int i = start; i < end; i++) {
+                            statements.get(i).binder().bind(ps);
+                            ps.addBatch();
+                        }
+                        int[] result = ps.executeBatch();
+                        System.arraycopy(result, 0, counts, start, result.length);
+                    }
+                    start = end;
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            // A unique index turning a row away is an expected outcome the caller handles, not a fault
+            boolean constraint = isConstraintViolation(e);
+            if (batch.size() > 1) {
+                // Don't let one bad row fail everyone else's write
+                logger.log(constraint ? Level.FINE : Level.WARNING,
+                        "Batched write of " + batch.size() + " rows failed (" + e.getMessage() + "), retrying individually");
+                for (PendingWrite write : batch) {
+                    commit(List.of(write));
+                }
+            } else {
+                if (constraint) {
+                    logger.fine("Database write rejected by a constraint: " + e.getMessage());
+                } else {
+                    logger.log(Level.SEVERE, "Database write failed", e);
+                }
+                batch.get(0).future().completeExceptionally(e);
+            }
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future().complete(counts[lastStatement[i]]);
+        }
+    }
+
+    /**
+     * @return true if the failure, or anything in its cause chain, is an integrity constraint
+     * violation (SQLState class 23, or SQLite's SQLITE_CONSTRAINT, which carries no SQLState).
+     * Drivers differ in whether they throw one directly or wrap it, e.g. in a BatchUpdateException.
+     */
+    static boolean isConstraintViolation(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            if (t instanceof SQLiteException sqlite
+                    && (sqlite.getResultCode().code & 0xff) == SQLiteErrorCode.SQLITE_CONSTRAINT.code) {
+                return true;
+            }
+            if (t instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("23")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops accepting writes and blocks until everything already queued has been committed.
+     */
+    public void shutdown(long timeoutMillis) {
+        synchronized (submitLock) {
+            running = false;
+        }
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.severe("Database writer did not finish in time, " + queue.size() + " write(s) may be lost");
+            return;
+        }
+        // Nothing should be left, but never leave a caller waiting on a write that won't run
+        PendingWrite leftover;
+        while ((leftover = queue.poll()) != null) {
+            leftover.future().completeExceptionally(new IllegalStateException("Write-behind queue is shut down"));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.mapplestudio.authify.hashing;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Argon2id in the standard PHC string format: {@code $argon2id$v=19$m=<KiB>,t=<passes>,p=<lanes>$<salt>$<hash>}.
+ * The calibrated cost is the number of passes; memory and parallelism come from the config.
+ */
+public class Argon2Hasher implements PasswordHasher {
+    private static final String PREFIX = "$argon2id$v=19$";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int memoryKib;
+    private final int iterations;
+    private final int parallelism;
+
+    public Argon2Hasher(int memoryKib, int iterations, int parallelism) {
+        this.memoryKib = memoryKib;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "argon2id";
+    }
+
+    @Override
+    public int getCost() {
+        return iterations;
+    }
+
+    @Override
+    public int getMinimumCost() {
+        return 2;
+    }
+
+    @Override
+    public int getMaximumCost() {
+        return 64;
+    }
+
+    @Override
+    public boolean isLogarithmicCost() {
+        return false;
+    }
+
+    @Override
+    public PasswordHasher withCost(int cost) {
+        return new Argon2Hasher(memoryKib, cost, parallelism);
+    }
+
+    @Override
+    public String hash(char[] password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(password, salt, memoryKib, iterations, parallelism);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + parameters() + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(char[] password, String hash) {
+        String[] parts = hash.split("\\$");
+        // "", "argon2id", "v=19", "m=..,t=..,p=..", salt, hash
+        if (parts.length != 6) {
+            return false;
+        }
+        try {
+            int m = 0, t = 0, p = 0;
+            for (String param : parts[3].split(",")) {
+                int value = Integer.parseInt(param.substring(2));
+                switch (param.charAt(0)) {
+                    case 'm' -> m = value;
+                    case 't' -> t = value;
+                    case 'p' -> p = value;
+                    default -> {
+                        return false;
+                    }
+                }
+            }
+            byte[] salt = Base64.getDecoder().decode(parts[4]);
+            byte[] expected = Base64.getDecoder().decode(parts[5]);
+            return MessageDigest.isEqual(expected, derive(password, salt, m, t, p));
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean supports(String hash) {
+        return hash.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        String[] parts = hash.split("\\$");
+        if (parts.length != 6) {
+            return true;
+        }
+        try {
+            // Parallelism doesn't change the work done, only how it is spread
+            int m = 0, t = 0;
+            for (String param : parts[3].split(",")) {
+                int value = Integer.parseInt(param.substring(2));
+                switch (param.charAt(0)) {
+                    case 'm' -> m = value;
+                    case 't' -> t = value;
+                    default -> { }
+                }
+            }
+            return m < memoryKib || t < iterations;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    private String parameters() {
+        return "m=" + memoryKib + ",t=" + iterations + ",p=" + parallelism;
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int memoryKib, int iterations, int parallelism) {
+        Argon2Parameters params = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withMemoryAsKB(memoryKib)
+                .withIterations(iterations)
+                .withParallelism(parallelism)
+                .withSalt(salt)
+                .build();
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(params);
+
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        try {
+            byte[] out = new byte[HASH_LENGTH];
+            generator.generateBytes(passwordBytes, out);
+            return out;
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.mapplestudio.authify.hashing;
+
+import at.favre.lib.crypto.bcrypt.BCrypt;
+
+public class BCryptHasher implements PasswordHasher {
+    private final int cost;
+
+    public BCryptHasher(int cost) {
+        this.cost = cost;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "bcrypt";
+    }
+
+    @Override
+    public int getCost() {
+        return cost;
+    }
+
+    @Override
+    public int getMinimumCost() {
+        return 10;
+    }
+
+    @Override
+    public int getMaximumCost() {
+        return 16;
+    }
+
+    @Override
+    public boolean isLogarithmicCost() {
+        return true;
+    }
+
+    @Override
+    public PasswordHasher withCost(int cost) {
+        return new BCryptHasher(cost);
+    }
+
+    @Override
+    public String hash(char[] password) {
+        return BCrypt.withDefaults().hashToString(cost, password);
+    }
+
+    @Override
+    public boolean verify(char[] password, String hash) {
+        return BCrypt.verifyer().verify(password, hash).verified;
+    }
+
+    @Override
+    public boolean supports(String hash) {
+        return hash.startsWith("$2a$") || hash.startsWith("$2b$") || hash.startsWith("$2y$");
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        // $2a$12$...
+        try {
+            return Integer.parseInt(hash.substring(4, 6)) < cost;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+}
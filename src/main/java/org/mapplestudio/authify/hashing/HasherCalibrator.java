@@ -0,0 +1,67 @@
+package org.mapplestudio.authify.hashing;
+
+/**
+ * Picks the highest cost whose hash time on this machine still fits a latency budget.
+ */
+public final class HasherCalibrator {
+    private static final char[] SAMPLE = "authify-calibration-sample".toCharArray();
+
+    private HasherCalibrator() {
+    }
+
+    public static PasswordHasher calibrate(PasswordHasher hasher, long budgetMillis) {
+        long budgetNanos = budgetMillis * 1_000_000L;
+        PasswordHasher base = hasher.withCost(hasher.getMinimumCost());
+        for (int i = 0; i < 3; i++) {
+            base.hash(SAMPLE); // let the JIT settle before timing anything
+        }
+
+        if (hasher.isLogarithmicCost()) {
+            PasswordHasher best = base;
+            for (int cost = hasher.getMinimumCost(); cost <= hasher.getMaximumCost(); cost++) {
+                PasswordHasher candidate = hasher.withCost(cost);
+                long elapsed = measure(candidate);
+                if (elapsed > budgetNanos) {
+                    break;
+                }
+                best = candidate;
+                if (elapsed * 2 > budgetNanos) {
+                    // The next step doubles the work and would blow the budget
+                    break;
+                }
+            }
+            return best;
+        }
+
+        // Linear cost: extrapolate from the minimum, then correct once if we overshot
+        long elapsed = Math.max(1, measure(base));
+        long cost = clamp(hasher, (long) ((double) hasher.getMinimumCost() * budgetNanos / elapsed));
+        PasswordHasher candidate = hasher.withCost((int) cost);
+        long candidateElapsed = Math.max(1, measure(candidate));
+        if (candidateElapsed > budgetNanos) {
+            cost = clamp(hasher, (long) ((double) cost * budgetNanos / candidateElapsed));
+            candidate = hasher.withCost((int) cost);
+        }
+        return candidate;
+    }
+
+    /**
+     * @return the faster of two runs, in nanoseconds.
+     */
+    public static long measure(PasswordHasher hasher) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 2; i++) {
+            long start = System.nanoTime();
+            hasher.hash(SAMPLE);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * @return {@code cost} moved into the hasher's safe range
+     */
+    public static long clamp(PasswordHasher hasher, long cost) {
+        return Math.max(hasher.getMinimumCost(), Math.min(hasher.getMaximumCost(), cost));
+    }
+}
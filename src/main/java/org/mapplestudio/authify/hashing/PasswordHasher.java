@@ -0,0 +1,38 @@
+package org.mapplestudio.authify.hashing;
+
+/**
+ * A password hashing algorithm at a fixed cost. Implementations encode their parameters in the
+ * hash string, so a stored hash can always be verified even after the configured cost changes.
+ */
+public interface PasswordHasher extends PasswordVerifier {
+
+    /**
+     * Algorithm name as used in the config ("bcrypt", "pbkdf2", "argon2id").
+     */
+    String getAlgorithm();
+
+    int getCost();
+
+    /**
+     * Smallest cost we're willing to run with, regardless of what calibration suggests.
+     */
+    int getMinimumCost();
+
+    int getMaximumCost();
+
+    /**
+     * Whether each +1 of cost doubles the work (BCrypt) rather than adding to it linearly.
+     */
+    boolean isLogarithmicCost();
+
+    PasswordHasher withCost(int cost);
+
+    String hash(char[] password);
+
+    /**
+     * @return true if the hash was produced by this algorithm but at a lower cost. A higher stored
+     * cost is kept, so a calibration that lands a step lower doesn't weaken existing hashes.
+     */
+    @Override
+    boolean needsRehash(String hash);
+}
@@ -0,0 +1,20 @@
+package org.mapplestudio.authify.hashing;
+
+/**
+ * Checks passwords against stored hashes of one format. Formats we only accept for migration
+ * implement just this; anything that can also create hashes is a {@link PasswordHasher}.
+ */
+public interface PasswordVerifier {
+
+    boolean verify(char[] password, String hash);
+
+    /**
+     * @return true if the hash was produced by this algorithm (at any cost).
+     */
+    boolean supports(String hash);
+
+    /**
+     * @return true if the hash should be replaced with a fresh one on the next successful login.
+     */
+    boolean needsRehash(String hash);
+}
@@ -0,0 +1,109 @@
+package org.mapplestudio.authify.hashing;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * PBKDF2-HMAC-SHA256, stored as {@code $pbkdf2-sha256$i=<iterations>$<salt>$<hash>}.
+ */
+public class Pbkdf2Hasher implements PasswordHasher {
+    private static final String PREFIX = "$pbkdf2-sha256$";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+
+    public Pbkdf2Hasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return "pbkdf2";
+    }
+
+    @Override
+    public int getCost() {
+        return iterations;
+    }
+
+    @Override
+    public int getMinimumCost() {
+        return 100_000;
+    }
+
+    @Override
+    public int getMaximumCost() {
+        return 10_000_000;
+    }
+
+    @Override
+    public boolean isLogarithmicCost() {
+        return false;
+    }
+
+    @Override
+    public PasswordHasher withCost(int cost) {
+        return new Pbkdf2Hasher(cost);
+    }
+
+    @Override
+    public String hash(char[] password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "i=" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    @Override
+    public boolean verify(char[] password, String hash) {
+        String[] parts = hash.split("\\$");
+        // "", "pbkdf2-sha256", "i=N", salt, hash
+        if (parts.length != 5 || !parts[2].startsWith("i=")) {
+            return false;
+        }
+        try {
+            int storedIterations = Integer.parseInt(parts[2].substring(2));
+            byte[] salt = Base64.getDecoder().decode(parts[3]);
+            byte[] expected = Base64.getDecoder().decode(parts[4]);
+            return MessageDigest.isEqual(expected, derive(password, salt, storedIterations));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean supports(String hash) {
+        return hash.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        String[] parts = hash.split("\\$");
+        if (parts.length != 5 || !parts[2].startsWith("i=")) {
+            return true;
+        }
+        try {
+            return Integer.parseInt(parts[2].substring(2)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] derive(char[] password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, KEY_LENGTH * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.mapplestudio.authify.hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * AuthMe's {@code $SHA$<salt>$<hex sha256(hex sha256(password) + salt)>}. Far too fast to be a safe
+ * password hash, so there is no hasher for it: it exists so imported accounts can log in, and
+ * their hash is replaced with the configured algorithm on that first login.
+ */
+public class SaltedSha256Verifier implements PasswordVerifier {
+    private static final String PREFIX = "$SHA$";
+
+    @Override
+    public boolean verify(char[] password, String hash) {
+        String[] parts = hash.split("\\$");
+        // "", "SHA", salt, hash
+        if (parts.length != 4) {
+            return false;
+        }
+        String inner = sha256Hex(new String(password).getBytes(StandardCharsets.UTF_8));
+        String expected = sha256Hex((inner + parts[2]).getBytes(StandardCharsets.UTF_8));
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                parts[3].toLowerCase(Locale.ROOT).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String sha256Hex(byte[] input) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(input));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean supports(String hash) {
+        return hash.startsWith(PREFIX);
+    }
+
+    @Override
+    public boolean needsRehash(String hash) {
+        return true;
+    }
+}
@@ -0,0 +1,138 @@
+package org.mapplestudio.authify.importer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A CSV dump with a header row naming the columns. Fields may be quoted ({@code "a,b"}, with
+ * {@code ""} for a quote) but can't span lines. The position is the number of data lines read.
+ */
+public class CsvImportSource implements ImportSource {
+    private final Path file;
+    private final char delimiter;
+    private final Columns columns;
+    private BufferedReader reader;
+    private int usernameIndex;
+    private int passwordIndex;
+    private int uuidIndex;
+    private int ipIndex;
+    private int premiumIndex;
+    private long line;
+
+    public CsvImportSource(Path file, char delimiter, Columns columns) {
+        this.file = file;
+        this.delimiter = delimiter;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open(String position) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IOException(file.getFileName() + " is empty");
+        }
+        if (header.startsWith("\uFEFF")) {
+            header = header.substring(1);
+        }
+        List<String> names = new ArrayList<>();
+        for (String name : split(header)) {
+            names.add(name.trim().toLowerCase(Locale.ROOT));
+        }
+        usernameIndex = index(names, columns.username(), true);
+        passwordIndex = index(names, columns.password(), true);
+        uuidIndex = index(names, columns.uuid(), false);
+        ipIndex = index(names, columns.ip(), false);
+        premiumIndex = index(names, columns.premium(), false);
+
+        long skip = position != null ? Long.parseLong(position) : 0;
+        while (line < skip && reader.readLine() != null) {
+            line++;
+        }
+    }
+
+    private int index(List<String> names, String column, boolean required) throws IOException {
+        if (column == null || column.isEmpty()) {
+            if (required) {
+                throw new IOException("the username and password columns must be configured");
+            }
+            return -1;
+        }
+        int index = names.indexOf(column.toLowerCase(Locale.ROOT));
+        if (index < 0 && required) {
+            throw new IOException(file.getFileName() + " has no '" + column + "' column");
+        }
+        return index;
+    }
+
+    @Override
+    public ImportRow next() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            line++;
+        } while (text.isBlank());
+        List<String> fields = split(text);
+        return new ImportRow(field(fields, usernameIndex), field(fields, passwordIndex), field(fields, uuidIndex),
+                field(fields, ipIndex), field(fields, premiumIndex));
+    }
+
+    private static String field(List<String> fields, int index) {
+        return index >= 0 && index < fields.size() ? fields.get(index) : null;
+    }
+
+    private List<String> split(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    @Override
+    public String position() {
+        return Long.toString(line);
+    }
+
+    @Override
+    public String describe() {
+        return "csv:" + file.toAbsolutePath();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.mapplestudio.authify.importer;
+
+/**
+ * One account as read from the source, before any validation. Columns the source doesn't have are null.
+ */
+public record ImportRow(String username, String passwordHash, String uuid, String ip, String premium) {
+}
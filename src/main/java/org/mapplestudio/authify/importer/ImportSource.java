@@ -0,0 +1,39 @@
+package org.mapplestudio.authify.importer;
+
+import java.io.IOException;
+
+/**
+ * A forward-only cursor over another plugin's accounts. Rows are read one at a time in a stable
+ * order, so a {@link #position()} taken after any row is enough to pick up from there later.
+ */
+public interface ImportSource extends AutoCloseable {
+
+    /**
+     * Which columns (or CSV header names) hold what. Empty names mean the source doesn't have that column.
+     */
+    record Columns(String username, String password, String uuid, String ip, String premium) {
+    }
+
+    /**
+     * Starts reading after {@code position}, or from the beginning if it's null.
+     */
+    void open(String position) throws IOException;
+
+    /**
+     * @return the next row, or null once the source is exhausted
+     */
+    ImportRow next() throws IOException;
+
+    /**
+     * Where the row last returned by {@link #next()} is, as accepted by {@link #open(String)}.
+     */
+    String position();
+
+    /**
+     * Identifies the source, so a checkpoint isn't resumed against a different one.
+     */
+    String describe();
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,152 @@
+package org.mapplestudio.authify.importer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Another plugin's table, read in order of a unique key column with one streaming query. The
+ * position is the last key read; resuming is a keyset query ({@code WHERE key > ?}), so it costs
+ * the same however far in the import stopped. The key's JDBC type is saved with it
+ * ({@code <java.sql.Types>:<value>}), so it is bound as that type again: comparing an integer key
+ * with a string is rejected by strict databases and compares as text on others.
+ */
+public class JdbcImportSource implements ImportSource {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_]+");
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final String table;
+    private final String keyColumn;
+    private final Columns columns;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultSet rows;
+    private int keyType;
+    private String position;
+
+    public JdbcImportSource(String url, String username, String password, String table, String keyColumn, Columns columns) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.columns = columns;
+    }
+
+    @Override
+    public void open(String position) throws IOException {
+        this.position = position;
+        List<String> select = new ArrayList<>();
+        select.add(identifier(keyColumn));
+        select.add(identifier(columns.username()));
+        select.add(identifier(columns.password()));
+        select.add(optional(columns.uuid()));
+        select.add(optional(columns.ip()));
+        select.add(optional(columns.premium()));
+        String sql = "SELECT " + String.join(", ", select) + " FROM " + identifier(table)
+                + (position != null ? " WHERE " + keyColumn + " > ?" : "") + " ORDER BY " + keyColumn;
+        try {
+            connection = DriverManager.getConnection(url, username, password);
+            // Some drivers (e.g. PostgreSQL) only use a cursor inside a transaction
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // Connector/J buffers the whole result unless asked to stream row by row
+            String driver = url.toLowerCase(Locale.ROOT);
+            statement.setFetchSize(driver.startsWith("jdbc:mysql:") || driver.startsWith("jdbc:mariadb:") ? Integer.MIN_VALUE : 1000);
+            if (position != null) {
+                bindPosition(position);
+            }
+            rows = statement.executeQuery();
+            keyType = rows.getMetaData().getColumnType(1);
+        } catch (SQLException e) {
+            close();
+            throw new IOException(e.getMessage(), e);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void bindPosition(String position) throws SQLException, IOException {
+        int separator = position.indexOf(':');
+        try {
+            int type = Integer.parseInt(position.substring(0, Math.max(0, separator)));
+            String value = position.substring(separator + 1);
+            switch (type) {
+                case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> statement.setLong(1, Long.parseLong(value));
+                case Types.DECIMAL, Types.NUMERIC -> statement.setBigDecimal(1, new BigDecimal(value));
+                default -> statement.setObject(1, value, type);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid import position '" + position + "', restart the import");
+        }
+    }
+
+    // Identifiers come from the config; refuse anything that would need quoting rather than quote it
+    private static String identifier(String name) throws IOException {
+        if (name == null || !IDENTIFIER.matcher(name).matches()) {
+            throw new IOException("'" + name + "' is not a valid table or column name");
+        }
+        return name;
+    }
+
+    private static String optional(String name) throws IOException {
+        return name == null || name.isEmpty() ? "NULL" : identifier(name);
+    }
+
+    @Override
+    public ImportRow next() throws IOException {
+        try {
+            if (!rows.next()) {
+                return null;
+            }
+            position = keyType + ":" + rows.getString(1);
+            return new ImportRow(rows.getString(2), rows.getString(3), rows.getString(4), rows.getString(5), rows.getString(6));
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String position() {
+        return position;
+    }
+
+    @Override
+    public String describe() {
+        // Without credentials: the description is written to the checkpoint file
+        return "jdbc:" + url.replaceFirst("^jdbc:", "").replaceFirst("\\?.*$", "") + "/" + table;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows != null) {
+                rows.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            rows = null;
+            statement = null;
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package org.mapplestudio.authify.importer;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.database.UserRecord;
+import org.mapplestudio.authify.database.UserStore;
+import org.mapplestudio.authify.managers.HashingManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Copies accounts from another auth plugin into the {@link UserStore} on a background thread.
+ * Rows are streamed from the source and written a chunk at a time, each chunk in one transaction,
+ * so memory use doesn't depend on the size of the source. After every chunk the source position
+ * is saved to a checkpoint file; an interrupted import (cancelled, server stopped, crashed) picks
+ * up from the last chunk, and re-importing that chunk is harmless because existing users are skipped.
+ * <p>
+ * Password hashes are stored as they are. Players log in with their old password and the hash is
+ * replaced with the configured algorithm on that first login. Hashes no verifier understands are skipped.
+ */
+public class UserImporter {
+    private static final Pattern USERNAME = Pattern.compile("[A-Za-z0-9_]{1,16}");
+
+    /**
+     * Counters of the running (or last) import.
+     */
+    public record Progress(String source, long read, long imported, long existing, long invalid, long unsupportedHash,
+                           long rowsPerSecond, long elapsedMillis, boolean running) {
+    }
+
+    private final UserStore userStore;
+    private final HashingManager hashingManager;
+    private final Logger logger;
+    private final ConfigurationSection config;
+    private final File dataFolder;
+    private final Path checkpointFile;
+    private final int chunkSize;
+    private final long progressIntervalMillis;
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong imported = new AtomicLong();
+    private final AtomicLong existing = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong unsupportedHash = new AtomicLong();
+    private volatile String sourceName;
+    private volatile long resumedFrom;
+    private volatile long startedNanos;
+    private volatile long finishedNanos;
+    private volatile boolean cancelled;
+    private Thread worker;
+
+    public UserImporter(Authify plugin, UserStore userStore, HashingManager hashingManager) {
+        this(userStore, hashingManager, plugin.getLogger(), plugin.getConfig().getConfigurationSection("import"),
+                plugin.getDataFolder(),
+                plugin.getConfig().getInt("import.chunk-size", 5000),
+                plugin.getConfig().getLong("import.progress-interval-seconds", 5) * 1000L);
+    }
+
+    /**
+     * @param config the {@code import} section describing the sources; may be null
+     */
+    public UserImporter(UserStore userStore, HashingManager hashingManager, Logger logger, ConfigurationSection config,
+                        File dataFolder, int chunkSize, long progressIntervalMillis) {
+        this.userStore = userStore;
+        this.hashingManager = hashingManager;
+        this.logger = logger;
+        this.config = config;
+        this.dataFolder = dataFolder;
+        this.checkpointFile = dataFolder.toPath().resolve("import-checkpoint.properties");
+        this.chunkSize = Math.max(1, chunkSize);
+        this.progressIntervalMillis = Math.max(1000, progressIntervalMillis);
+    }
+
+    /**
+     * Builds the source configured under {@code import.csv} or {@code import.jdbc}.
+     */
+    public ImportSource createSource(String type) {
+        ConfigurationSection section = config != null ? config.getConfigurationSection(type) : null;
+        if (section == null) {
+            throw new IllegalArgumentException("no import." + type + " section in the config");
+        }
+        ImportSource.Columns columns = new ImportSource.Columns(
+                config.getString("columns.username", "realname"),
+                config.getString("columns.password", "password"),
+                config.getString("columns.uuid", ""),
+                config.getString("columns.ip", "ip"),
+                config.getString("columns.premium", ""));
+        return switch (type) {
+            case "csv" -> {
+                String delimiter = section.getString("delimiter", ",");
+                yield new CsvImportSource(new File(dataFolder, section.getString("file", "import.csv")).toPath(),
+                        delimiter.isEmpty() ? ',' : delimiter.charAt(0), columns);
+            }
+            case "jdbc" -> new JdbcImportSource(section.getString("url", ""), section.getString("username", ""),
+                    section.getString("password", ""), section.getString("table", "authme"),
+                    section.getString("key-column", "id"), columns);
+            default -> throw new IllegalArgumentException("unknown import source '" + type + "'");
+        };
+    }
+
+    /**
+     * Starts importing from {@code source} on a new thread.
+     * @param resume continue from the checkpoint if there is one for this source
+     * @throws IllegalStateException if an import is running, or an unfinished checkpoint exists and
+     *                               {@code resume} is false (delete it with {@link #discardCheckpoint()})
+     */
+    public synchronized void start(ImportSource source, boolean resume) throws IOException {
+        if (isRunning()) {
+            throw new IllegalStateException("an import is already running");
+        }
+        Properties checkpoint = loadCheckpoint();
+        boolean unfinished = checkpoint != null && !Boolean.parseBoolean(checkpoint.getProperty("completed"));
+        boolean sameSource = checkpoint != null && source.describe().equals(checkpoint.getProperty("source"));
+        if (resume && !(unfinished && sameSource)) {
+            throw new IllegalStateException(checkpoint == null ? "there is no import to resume"
+                    : !sameSource ? "the checkpoint is for " + checkpoint.getProperty("source")
+                    : "the import of this source already finished");
+        }
+        if (!resume && unfinished) {
+            throw new IllegalStateException("an unfinished import of " + checkpoint.getProperty("source") + " stopped after "
+                    + checkpoint.getProperty("read") + " rows; resume or restart it");
+        }
+        String position = resume ? checkpoint.getProperty("position") : null;
+        read.set(resume ? Long.parseLong(checkpoint.getProperty("read", "0")) : 0);
+        imported.set(resume ? Long.parseLong(checkpoint.getProperty("imported", "0")) : 0);
+        existing.set(resume ? Long.parseLong(checkpoint.getProperty("existing", "0")) : 0);
+        invalid.set(resume ? Long.parseLong(checkpoint.getProperty("invalid", "0")) : 0);
+        unsupportedHash.set(resume ? Long.parseLong(checkpoint.getProperty("unsupported-hash", "0")) : 0);
+
+        try {
+            source.open(position);
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+        sourceName = source.describe();
+        cancelled = false;
+        startedNanos = System.nanoTime();
+        finishedNanos = 0;
+        resumedFrom = read.get();
+        logger.info("Importing users from " + sourceName + (resume ? ", resuming after row " + resumedFrom : ""));
+        worker = new Thread(() -> run(source), "authify-import");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void run(ImportSource source) {
+        long lastReport = System.nanoTime();
+        try (source) {
+            List<UserRecord> chunk = new ArrayList<>(chunkSize);
+            ImportRow row;
+            while (!cancelled && (row = source.next()) != null) {
+                read.incrementAndGet();
+                UserRecord user = map(row);
+                if (user != null) {
+                    chunk.add(user);
+                }
+                if (chunk.size() >= chunkSize) {
+                    commit(chunk, source);
+                }
+                if (System.nanoTime() - lastReport >= TimeUnit.MILLISECONDS.toNanos(progressIntervalMillis)) {
+                    lastReport = System.nanoTime();
+                    report("Import");
+                }
+            }
+            if (cancelled) {
+                // The rows after the checkpoint are read again on resume
+                logger.info("Import cancelled after " + read.get() + " rows; /authify import <source> resume continues it");
+                return;
+            }
+            commit(chunk, source);
+            saveCheckpoint(source, true);
+            report("Import finished");
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Import from " + sourceName + " failed after " + read.get()
+                    + " rows; fix the cause and resume it", e);
+        } finally {
+            finishedNanos = System.nanoTime();
+        }
+    }
+
+    private UserRecord map(ImportRow row) {
+        String username = row.username() != null ? row.username().trim() : "";
+        if (!USERNAME.matcher(username).matches()) {
+            invalid.incrementAndGet();
+            return null;
+        }
+        String hash = row.passwordHash() != null ? row.passwordHash().trim() : "";
+        if (hash.isEmpty() || hash.length() > 255 || !hashingManager.isKnownFormat(hash)) {
+            unsupportedHash.incrementAndGet();
+            return null;
+        }
+        UUID uuid;
+        try {
+            uuid = row.uuid() != null && !row.uuid().isBlank() ? parseUuid(row.uuid().trim()) : offlineUuid(username);
+        } catch (IllegalArgumentException e) {
+            invalid.incrementAndGet();
+            return null;
+        }
+        String ip = row.ip() != null && !row.ip().isBlank() && row.ip().length() <= 45 ? row.ip().trim() : null;
+        String premium = row.premium() != null ? row.premium().trim().toLowerCase(Locale.ROOT) : "";
+        return new UserRecord(uuid, username, hash, premium.equals("1") || premium.equals("true"), ip);
+    }
+
+    private static UUID parseUuid(String text) {
+        if (text.length() == 32) {
+            text = text.substring(0, 8) + "-" + text.substring(8, 12) + "-" + text.substring(12, 16) + "-"
+                    + text.substring(16, 20) + "-" + text.substring(20);
+        }
+        return UUID.fromString(text);
+    }
+
+    // What an offline-mode server gives the player, so cracked accounts keep their UUID
+    private static UUID offlineUuid(String username) {
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + username).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void commit(List<UserRecord> chunk, ImportSource source) throws IOException {
+        if (!chunk.isEmpty()) {
+            int added = userStore.importUsers(chunk).join();
+            imported.addAndGet(added);
+            existing.addAndGet(chunk.size() - added);
+            chunk.clear();
+        }
+        saveCheckpoint(source, false);
+    }
+
+    private void report(String label) {
+        Progress progress = getProgress();
+        logger.info(String.format(Locale.ROOT, "%s: %,d rows read, %,d imported, %,d already registered, %,d invalid names, "
+                        + "%,d unsupported hashes (%,d rows/s, %ds)", label, progress.read(), progress.imported(),
+                progress.existing(), progress.invalid(), progress.unsupportedHash(),
+                progress.rowsPerSecond(), progress.elapsedMillis() / 1000));
+    }
+
+    private Properties loadCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(checkpointFile)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    // Written to a temporary file and moved into place, so a crash never leaves half a checkpoint
+    private void saveCheckpoint(ImportSource source, boolean completed) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("source", source.describe());
+        if (source.position() != null) {
+            properties.setProperty("position", source.position());
+        }
+        properties.setProperty("read", Long.toString(read.get()));
+        properties.setProperty("imported", Long.toString(imported.get()));
+        properties.setProperty("existing", Long.toString(existing.get()));
+        properties.setProperty("invalid", Long.toString(invalid.get()));
+        properties.setProperty("unsupported-hash", Long.toString(unsupportedHash.get()));
+        properties.setProperty("completed", Boolean.toString(completed));
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Authify import checkpoint");
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forgets an unfinished import so the next one starts from the beginning.
+     */
+    public synchronized void discardCheckpoint() throws IOException {
+        if (isRunning()) {
+            throw new IllegalStateException("an import is running");
+        }
+        Files.deleteIfExists(checkpointFile);
+    }
+
+    /**
+     * Stops the import after the current row and waits up to {@code timeoutMillis} for it to finish.
+     * @return false if no import was running
+     */
+    public boolean cancel(long timeoutMillis) {
+        Thread running;
+        synchronized (this) {
+            if (!isRunning()) {
+                return false;
+            }
+            cancelled = true;
+            running = worker;
+        }
+        try {
+            running.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    public synchronized boolean isRunning() {
+        return worker != null && worker.isAlive();
+    }
+
+    /**
+     * @return the counters of the running or last import, or null if none ran since startup
+     */
+    public Progress getProgress() {
+        if (sourceName == null) {
+            return null;
+        }
+        long end = finishedNanos != 0 ? finishedNanos : System.nanoTime();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(end - startedNanos);
+        long rowsRead = read.get();
+        // Rows skipped over by a resume aren't part of this run's rate
+        long rate = elapsedMillis > 0 ? (rowsRead - resumedFrom) * 1000 / elapsedMillis : 0;
+        return new Progress(sourceName, rowsRead, imported.get(), existing.get(), invalid.get(), unsupportedHash.get(),
+                rate, elapsedMillis, finishedNanos == 0);
+    }
+}
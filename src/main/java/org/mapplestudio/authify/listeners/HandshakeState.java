@@ -0,0 +1,109 @@
+package org.mapplestudio.authify.listeners;
+
+import org.mapplestudio.authify.crypto.CryptoEngine;
+import org.mapplestudio.authify.managers.LoginAdmissionController;
+import org.mapplestudio.authify.utils.HashedWheelTimer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Everything we know about one connection between its LoginStart and the moment we hand it back
+ * to the server. Owned by {@link LoginHandshakeHandler}, keyed by remote address.
+ */
+class HandshakeState {
+    enum Stage {
+        // Waiting for the admission controller or the premium lookup
+        LOOKUP,
+        // Encryption Request sent, waiting for the client's response
+        ENCRYPTING,
+        // Encryption Response received, waiting for the sessionserver
+        VERIFYING,
+        // LoginStart re-injected, waiting for it to come back through the listener
+        RELEASED
+    }
+
+    private final InetSocketAddress address;
+    private final LoginConnection connection;
+    private final String username;
+    private final long startedNanos = System.nanoTime();
+    private volatile Stage stage = Stage.LOOKUP;
+    private volatile byte[] verifyToken;
+    // The key generation advertised in our Encryption Request
+    private volatile CryptoEngine.Keys keys;
+    private volatile long encryptionSentNanos;
+    private volatile LoginAdmissionController.Ticket ticket;
+    private volatile HashedWheelTimer.Timeout timeout;
+
+    HandshakeState(LoginConnection connection, String username) {
+        this.address = connection.getAddress();
+        this.connection = connection;
+        this.username = username;
+    }
+
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    LoginConnection getConnection() {
+        return connection;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    long getStartedNanos() {
+        return startedNanos;
+    }
+
+    Stage getStage() {
+        return stage;
+    }
+
+    void setStage(Stage stage) {
+        this.stage = stage;
+    }
+
+    byte[] getVerifyToken() {
+        return verifyToken;
+    }
+
+    void setVerifyToken(byte[] verifyToken) {
+        this.verifyToken = verifyToken;
+    }
+
+    CryptoEngine.Keys getKeys() {
+        return keys;
+    }
+
+    void setKeys(CryptoEngine.Keys keys) {
+        this.keys = keys;
+    }
+
+    long getEncryptionSentNanos() {
+        return encryptionSentNanos;
+    }
+
+    void setEncryptionSentNanos(long encryptionSentNanos) {
+        this.encryptionSentNanos = encryptionSentNanos;
+    }
+
+    LoginAdmissionController.Ticket getTicket() {
+        return ticket;
+    }
+
+    void setTicket(LoginAdmissionController.Ticket ticket) {
+        this.ticket = ticket;
+    }
+
+    void setTimeout(HashedWheelTimer.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void cancelTimeout() {
+        HashedWheelTimer.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.mapplestudio.authify.listeners;
+
+import java.net.InetSocketAddress;
+import java.util.UUID;
+
+/**
+ * One client connection in the login phase, as {@link LoginHandshakeHandler} sees it. On the server
+ * this is backed by ProtocolLib ({@link LoginProtocolListener}); load tests drive the handler with
+ * fake connections instead.
+ */
+public interface LoginConnection {
+
+    InetSocketAddress getAddress();
+
+    /**
+     * Sends an Encryption Request with an empty server id.
+     */
+    void sendEncryptionRequest(byte[] encodedPublicKey, byte[] verifyToken) throws Exception;
+
+    /**
+     * Hands the held LoginStart back to the server, carrying {@code uuid} instead of the UUID the
+     * client sent (null keeps it). The packet comes back through {@link LoginHandshakeHandler#onLoginStart}.
+     */
+    void releaseLoginStart(UUID uuid) throws Exception;
+
+    void kick(String message);
+}
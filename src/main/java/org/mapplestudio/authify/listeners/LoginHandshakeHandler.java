@@ -0,0 +1,412 @@
+package org.mapplestudio.authify.listeners;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.audit.AuditEvent;
+import org.mapplestudio.authify.audit.AuditLog;
+import org.mapplestudio.authify.crypto.CryptoEngine;
+import org.mapplestudio.authify.database.UserStore;
+import org.mapplestudio.authify.managers.AuthManager;
+import org.mapplestudio.authify.managers.LoginAdmissionController;
+import org.mapplestudio.authify.metrics.LatencyHistogram;
+import org.mapplestudio.authify.metrics.MetricsRegistry;
+import org.mapplestudio.authify.mojang.MojangProfileChecker;
+import org.mapplestudio.authify.mojang.MojangSessionService;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+import org.mapplestudio.authify.utils.HashedWheelTimer;
+
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * The pre-login flow: holds each LoginStart, decides premium or cracked, runs the encryption
+ * handshake and sessionserver check for premium players, and releases the LoginStart with the
+ * right UUID. Independent of ProtocolLib; it only talks to {@link LoginConnection}s.
+ */
+public class LoginHandshakeHandler {
+    private final ConfigurationSection config;
+    private final Logger logger;
+    private final boolean debug;
+    private final UserStore userStore;
+    private final AuthManager authManager;
+    private final MojangProfileChecker profileChecker;
+    private final MojangSessionService sessionService;
+    private final LoginAdmissionController admissionController;
+    private final CryptoEngine cryptoEngine;
+    // RSA work for Encryption Responses; the packet thread only hands the packet over
+    private final BoundedExecutor cryptoExecutor;
+    private final AuditLog auditLog;
+    // Track connection identity by IP/Port since Player name is not yet available
+    private final Map<InetSocketAddress, HandshakeState> handshakes = new ConcurrentHashMap<>();
+    // Expires handshakes whose client went quiet or disconnected halfway through
+    private final HashedWheelTimer handshakeTimer;
+    private final long handshakeTimeoutMillis;
+    private final LatencyHistogram queueWaitLatency;
+    private final LatencyHistogram databaseLatency;
+    private final LatencyHistogram profileLatency;
+    private final LatencyHistogram encryptionRoundTripLatency;
+    private final LatencyHistogram handoffLatency;
+    private final LatencyHistogram cryptoQueueLatency;
+    private final LatencyHistogram decryptLatency;
+    private final LatencyHistogram sessionLatency;
+    private final LatencyHistogram handshakeLatency;
+    private final LongAdder premiumLogins;
+    private final LongAdder crackedLogins;
+    private final LongAdder rejectedLogins;
+    private final LongAdder timedOutLogins;
+    private final LongAdder failedLogins;
+
+    public LoginHandshakeHandler(Authify plugin, UserStore userStore, AuthManager authManager,
+                                 MojangProfileChecker profileChecker, MojangSessionService sessionService,
+                                 LoginAdmissionController admissionController, CryptoEngine cryptoEngine,
+                                 BoundedExecutor cryptoExecutor, AuditLog auditLog, MetricsRegistry metrics) {
+        this(plugin.getConfig(), plugin.getLogger(), userStore, authManager, profileChecker, sessionService,
+                admissionController, cryptoEngine, cryptoExecutor, auditLog, metrics);
+    }
+
+    /**
+     * Standalone constructor for running without a server (e.g. load tests).
+     * {@code config} is the root plugin configuration.
+     */
+    public LoginHandshakeHandler(ConfigurationSection config, Logger logger, UserStore userStore, AuthManager authManager,
+                                 MojangProfileChecker profileChecker, MojangSessionService sessionService,
+                                 LoginAdmissionController admissionController, CryptoEngine cryptoEngine,
+                                 BoundedExecutor cryptoExecutor, AuditLog auditLog, MetricsRegistry metrics) {
+        this.config = config;
+        this.logger = logger;
+        this.debug = config.getBoolean("debug", false);
+        this.userStore = userStore;
+        this.authManager = authManager;
+        this.profileChecker = profileChecker;
+        this.sessionService = sessionService;
+        this.admissionController = admissionController;
+        this.cryptoEngine = cryptoEngine;
+        this.cryptoExecutor = cryptoExecutor;
+        this.auditLog = auditLog;
+        this.handshakeTimeoutMillis = config.getLong("login-queue.handshake-timeout-seconds", 30) * 1000L;
+        this.handshakeTimer = new HashedWheelTimer("authify-handshake-timer", logger, 100, 512);
+
+        this.queueWaitLatency = metrics.histogram("login_queue_wait_seconds", "Time a LoginStart waited for the admission controller");
+        this.databaseLatency = metrics.histogram("login_database_lookup_seconds", "Pre-login user lookup, including cache hits");
+        this.profileLatency = metrics.histogram("login_mojang_profile_seconds", "Mojang profile check for names not in the database");
+        this.encryptionRoundTripLatency = metrics.histogram("login_encryption_round_trip_seconds", "Encryption Request sent to Encryption Response received");
+        this.handoffLatency = metrics.histogram("login_encryption_handoff_seconds", "Time the packet thread spent on an Encryption Response before handing it to the crypto pool");
+        this.cryptoQueueLatency = metrics.histogram("login_crypto_queue_wait_seconds", "Time an Encryption Response waited for a crypto worker");
+        this.decryptLatency = metrics.histogram("login_decrypt_seconds", "RSA decryption of the shared secret and verify token, and the server id hash");
+        this.sessionLatency = metrics.histogram("login_session_verify_seconds", "Sessionserver hasJoined call");
+        this.handshakeLatency = metrics.histogram("login_handshake_seconds", "LoginStart held to LoginStart released");
+        this.premiumLogins = metrics.counter("login_premium_total", "Premium players verified with the sessionserver");
+        this.crackedLogins = metrics.counter("login_cracked_total", "Connections passed through as cracked players");
+        this.rejectedLogins = metrics.counter("login_rejected_total", "Connections kicked because the login queue was full");
+        this.timedOutLogins = metrics.counter("login_timed_out_total", "Handshakes that expired before finishing");
+        this.failedLogins = metrics.counter("login_failed_total", "Handshakes that failed verification or hit an error");
+    }
+
+    /**
+     * @return true if the packet must be held (cancelled), false to let it through to the server
+     */
+    public boolean onLoginStart(LoginConnection connection, String username, UUID uuid) {
+        InetSocketAddress address = connection.getAddress();
+        debug("Received LoginStart for: " + username + " (" + uuid + ") from " + address);
+
+        // Anti-Loop: If we already released this connection, let the re-injected packet pass
+        HandshakeState existing = handshakes.get(address);
+        if (existing != null && existing.getStage() == HandshakeState.Stage.RELEASED
+                && existing.getUsername().equals(username)) {
+            debug("Player " + username + " is already processed. Allowing packet.");
+            finish(existing);
+            return false;
+        }
+        if (existing != null) {
+            // Same address started over, the old attempt is dead
+            abandon(existing);
+        }
+
+        // 1. HOLD the packet (Stop server from assigning Offline UUID)
+        HandshakeState state = new HandshakeState(connection, username);
+        handshakes.put(address, state);
+        state.setTimeout(handshakeTimer.schedule(() -> expire(state), handshakeTimeoutMillis, TimeUnit.MILLISECONDS));
+        debug("Held LoginStart packet for " + username);
+
+        // 2. Async Lookup, once the admission controller lets us through
+        LoginAdmissionController.Ticket ticket = admissionController.submit(address.getAddress(),
+                () -> lookup(state).whenComplete((ignored, ex) -> admissionController.release()));
+        if (ticket.getResult() == LoginAdmissionController.Result.REJECTED) {
+            debug("Login queue full, rejecting " + username + " from " + address);
+            rejectedLogins.increment();
+            finish(state);
+            kick(connection, username, "kick-login-queue-full", "Server busy");
+        } else if (ticket.getResult() == LoginAdmissionController.Result.QUEUED) {
+            state.setTicket(ticket);
+            debug("Queued pre-login lookup for " + username + " (" + admissionController.getQueuedCount() + " waiting)");
+        }
+        return true;
+    }
+
+    /**
+     * Handles an Encryption Response (premium players only). The packet is always held. Only the
+     * lookup happens on the calling (packet) thread; decryption and verification continue on the
+     * crypto pool.
+     */
+    public void onEncryptionResponse(LoginConnection connection, byte[] sharedSecret, byte[] clientVerifyToken) {
+        long receivedNanos = System.nanoTime();
+        InetSocketAddress address = connection.getAddress();
+        HandshakeState state = handshakes.get(address);
+
+        if (state == null || state.getStage() != HandshakeState.Stage.ENCRYPTING) {
+            debug("Received Encryption Response from unknown connection: " + address);
+            kick(connection, null, "kick-auth-failed", "Authentication Failed");
+            return;
+        }
+
+        String username = state.getUsername();
+        state.setStage(HandshakeState.Stage.VERIFYING);
+        encryptionRoundTripLatency.recordSince(state.getEncryptionSentNanos());
+
+        debug("Received Encryption Response from " + username);
+
+        cryptoExecutor.run(() -> verify(connection, state, receivedNanos, sharedSecret, clientVerifyToken))
+                .exceptionally(ex -> {
+                    // Crypto pool saturated
+                    logger.warning("Could not verify " + username + ": " + ex.getMessage());
+                    failedLogins.increment();
+                    finish(state);
+                    kick(connection, username, "kick-server-busy", "Server busy");
+                    return null;
+                });
+        handoffLatency.recordSince(receivedNanos);
+    }
+
+    private void verify(LoginConnection connection, HandshakeState state, long receivedNanos,
+                        byte[] sharedSecret, byte[] clientVerifyToken) {
+        InetSocketAddress address = state.getAddress();
+        String username = state.getUsername();
+        long decryptStart = System.nanoTime();
+        cryptoQueueLatency.recordNanos(decryptStart - receivedNanos);
+        if (handshakes.get(address) != state) {
+            debug("Handshake for " + username + " expired while waiting for a crypto worker");
+            return;
+        }
+
+        try {
+            CryptoEngine.Decrypted decrypted = cryptoEngine.decrypt(state.getKeys(), sharedSecret, clientVerifyToken);
+
+            if (!MessageDigest.isEqual(state.getVerifyToken(), decrypted.verifyToken())) {
+                decryptLatency.recordSince(decryptStart);
+                debug("Verify token mismatch for " + username);
+                audit(AuditEvent.Type.PREMIUM_FAILED, username, null, address, "verify token mismatch");
+                failedLogins.increment();
+                kick(connection, username, "kick-auth-failed", "Authentication Failed");
+                finish(state);
+                return;
+            }
+
+            String serverId = cryptoEngine.serverId(state.getKeys(), decrypted.sharedSecret());
+            decryptLatency.recordSince(decryptStart);
+
+            // 5. Authenticate with Mojang
+            debug("Authenticating " + username + " with Mojang...");
+            sessionLatency.time(() -> sessionService.hasJoined(username, serverId)).thenAccept(profile -> {
+                if (handshakes.get(address) != state) {
+                    debug("Handshake for " + username + " expired during session verification");
+                    return;
+                }
+                if (profile != null) {
+                    debug("Mojang Auth Success for " + username + ". UUID: " + profile.uuid());
+                    // 6. Success: Re-inject Login Start with REAL UUID
+                    // Mark as processed so we don't intercept it again
+                    state.setStage(HandshakeState.Stage.RELEASED);
+
+                    try {
+                        debug("Re-injecting LoginStart for premium user " + username + " with UUID " + profile.uuid());
+                        state.getConnection().releaseLoginStart(profile.uuid());
+
+                        authManager.login(profile.uuid(), true, null);
+                        audit(AuditEvent.Type.PREMIUM_VERIFIED, username, profile.uuid(), address, null);
+                        premiumLogins.increment();
+                        handshakeLatency.recordSince(state.getStartedNanos());
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        failedLogins.increment();
+                        finish(state);
+                    }
+                } else {
+                    debug("Mojang Auth Failed for " + username);
+                    failedLogins.increment();
+                    boolean unavailable = sessionService.isUnavailable();
+                    audit(AuditEvent.Type.PREMIUM_FAILED, username, null, address,
+                            unavailable ? "session server unavailable" : "session server did not confirm the join");
+                    if (unavailable) {
+                        kick(connection, username, "kick-mojang-unavailable", "Mojang is unavailable");
+                    } else {
+                        kick(connection, username, "kick-auth-failed", "Authentication Failed");
+                    }
+                    finish(state);
+                }
+            });
+
+        } catch (Exception e) {
+            logger.severe("Encryption Error: " + e.getMessage());
+            failedLogins.increment();
+            kick(connection, username, "kick-encryption-error", "Encryption Error");
+            finish(state);
+        }
+    }
+
+    /**
+     * Live handshakes: held, queued, waiting for encryption or waiting for the re-injected packet.
+     */
+    public int getHandshakeCount() {
+        return handshakes.size();
+    }
+
+    public LoginAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public void shutdown() {
+        handshakeTimer.stop();
+        handshakes.clear();
+    }
+
+    private CompletableFuture<Void> lookup(HandshakeState state) {
+        String username = state.getUsername();
+        if (handshakes.get(state.getAddress()) != state) {
+            // Expired or replaced while it sat in the admission queue
+            return CompletableFuture.completedFuture(null);
+        }
+        queueWaitLatency.recordSince(state.getStartedNanos());
+        return databaseLatency.time(() -> userStore.isPremium(username)).thenCompose(isPremium -> {
+            debug("Database lookup for " + username + ": Premium=" + isPremium);
+
+            if (isPremium == null) {
+                // User not in DB -> Check Mojang API
+                return profileLatency.time(() -> profileChecker.hasProfile(username)).thenAccept(hasMojangProfile -> {
+                    debug("Mojang API check for " + username + ": " + hasMojangProfile);
+                    if (hasMojangProfile) {
+                        beginPremiumLogin(state);
+                    } else {
+                        releasePacket(state);
+                    }
+                });
+            } else if (isPremium) {
+                beginPremiumLogin(state);
+            } else {
+                releasePacket(state);
+            }
+            return CompletableFuture.<Void>completedFuture(null);
+        }).exceptionally(ex -> {
+            // Database pool saturated or failing: don't leave the connection hanging
+            logger.warning("Pre-login lookup failed for " + username + ": " + ex.getMessage());
+            failedLogins.increment();
+            finish(state);
+            kick(state.getConnection(), username, "kick-server-busy", "Server busy");
+            return null;
+        });
+    }
+
+    /**
+     * Forgets a handshake that is done (successfully or not).
+     */
+    private void finish(HandshakeState state) {
+        state.cancelTimeout();
+        handshakes.remove(state.getAddress(), state);
+    }
+
+    private void abandon(HandshakeState state) {
+        finish(state);
+        admissionController.cancel(state.getTicket());
+    }
+
+    private void expire(HandshakeState state) {
+        if (handshakes.remove(state.getAddress(), state)) {
+            admissionController.cancel(state.getTicket());
+            debug("Handshake for " + state.getUsername() + " from " + state.getAddress() + " timed out in stage " + state.getStage());
+            timedOutLogins.increment();
+            kick(state.getConnection(), state.getUsername(), "kick-timeout", "Login timed out");
+        }
+    }
+
+    private void beginPremiumLogin(HandshakeState state) {
+        if (sessionService.isUnavailable()) {
+            // The session server's breaker is open, so the handshake could only end in a failed verification
+            debug("Session server unavailable, turning away premium login for " + state.getUsername());
+            failedLogins.increment();
+            finish(state);
+            kick(state.getConnection(), state.getUsername(), "kick-mojang-unavailable", "Mojang is unavailable");
+            return;
+        }
+        initiateEncryption(state);
+    }
+
+    private void initiateEncryption(HandshakeState state) {
+        if (handshakes.get(state.getAddress()) != state) {
+            return;
+        }
+        String username = state.getUsername();
+        try {
+            CryptoEngine.Keys keys = cryptoEngine.getKeys();
+            byte[] verifyToken = cryptoEngine.generateVerifyToken();
+            state.setKeys(keys);
+            state.setVerifyToken(verifyToken);
+            state.setStage(HandshakeState.Stage.ENCRYPTING);
+
+            state.setEncryptionSentNanos(System.nanoTime());
+            state.getConnection().sendEncryptionRequest(keys.encodedPublicKey(), verifyToken);
+            debug("Sent Encryption Request to " + username);
+        } catch (Exception e) {
+            logger.severe("Encryption init failed for " + username);
+            failedLogins.increment();
+            kick(state.getConnection(), username, "kick-auth-failed", "Authentication Failed");
+            finish(state);
+        }
+    }
+
+    private void releasePacket(HandshakeState state) {
+        if (handshakes.get(state.getAddress()) != state) {
+            return;
+        }
+        // The re-injected START comes back through onPacketReceiving, which sees RELEASED and lets it pass
+        state.setStage(HandshakeState.Stage.RELEASED);
+        try {
+            debug("Re-injecting LoginStart for cracked user " + state.getUsername());
+            state.getConnection().releaseLoginStart(null);
+            crackedLogins.increment();
+            handshakeLatency.recordSince(state.getStartedNanos());
+        } catch (Exception e) {
+            e.printStackTrace();
+            failedLogins.increment();
+            finish(state);
+        }
+    }
+
+    /**
+     * Kicks and records it, with the message key as the reason.
+     */
+    private void kick(LoginConnection connection, String username, String messagePath, String fallback) {
+        audit(AuditEvent.Type.KICK, username, null, connection.getAddress(), messagePath);
+        connection.kick(getMessage(messagePath, fallback));
+    }
+
+    private void audit(AuditEvent.Type type, String username, UUID uuid, InetSocketAddress address, String detail) {
+        String ip = address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+        auditLog.record(type, username, uuid, ip, detail);
+    }
+
+    private String getMessage(String path, String fallback) {
+        return config.getString("messages." + path, fallback);
+    }
+
+    private void debug(String message) {
+        if (debug) {
+            logger.info("[DEBUG] " + message);
+        }
+    }
+}
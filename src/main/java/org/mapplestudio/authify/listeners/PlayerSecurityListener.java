@@ -1,130 +1,124 @@
 package org.mapplestudio.authify.listeners;
 
+import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
-import org.bukkit.event.block.BlockBreakEvent;
-import org.bukkit.event.block.BlockPlaceEvent;
-import org.bukkit.event.entity.EntityDamageByEntityEvent;
-import org.bukkit.event.inventory.InventoryClickEvent;
-import org.bukkit.event.player.AsyncPlayerChatEvent;
-import org.bukkit.event.player.PlayerCommandPreprocessEvent;
-import org.bukkit.event.player.PlayerDropItemEvent;
-import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.potion.PotionEffect;
 import org.bukkit.potion.PotionEffectType;
 import org.mapplestudio.authify.Authify;
 import org.mapplestudio.authify.managers.AuthManager;
 
+import java.util.UUID;
+
+/**
+ * Decides who gets restricted on join and lifts it once they log in. The actual restriction
+ * handlers live in {@link RestrictionListener}, which is registered only while someone needs them.
+ */
 public class PlayerSecurityListener implements Listener {
     private final Authify plugin;
     private final AuthManager authManager;
+    private final RestrictionListener restrictions = new RestrictionListener();
+    // Main thread only
+    private boolean restrictionsRegistered;
 
     public PlayerSecurityListener(Authify plugin, AuthManager authManager) {
         this.plugin = plugin;
         this.authManager = authManager;
+        // Logins finish on async threads; event registration and potion effects need the main thread
+        authManager.setLoginListener(uuid -> plugin.getServer().getScheduler().runTask(plugin, () -> unrestrict(uuid)));
+    }
+
+    /**
+     * Restricts players who were already online without a session (e.g. after a reload).
+     */
+    public void restrictOnlinePlayers() {
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            if (!authManager.isAuthenticated(player.getUniqueId())) {
+                restrict(player);
+            }
+        }
     }
 
     @EventHandler
     public void onJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
-        if (!authManager.isAuthenticated(player.getUniqueId())) {
-            // Apply Blindness indefinitely (until login)
-            player.addPotionEffect(new PotionEffect(PotionEffectType.BLINDNESS, Integer.MAX_VALUE, 1, false, false));
-            
-            // Teleport to spawn to prevent floating in void/falling
-            plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
-                if (player.isOnline() && !authManager.isAuthenticated(player.getUniqueId())) {
-                    player.teleport(player.getWorld().getSpawnLocation());
-                }
-            }, 1L);
+        if (authManager.isAuthenticated(player.getUniqueId())) {
+            // The blindness is saved with the player, so one who quit while restricted still has it
+            player.removePotionEffect(PotionEffectType.BLINDNESS);
+            return;
+        }
+        if (authManager.tryResume(player.getUniqueId(), getIp(player))) {
+            plugin.debug("Resumed session for " + player.getName());
+            player.removePotionEffect(PotionEffectType.BLINDNESS);
+            player.sendMessage(getMessage("session-resumed"));
+            return;
         }
-    }
 
-    @EventHandler
-    public void onMove(PlayerMoveEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            // Prevent X/Y/Z movement, allow rotation
-            if (event.getFrom().getX() != event.getTo().getX() ||
-                event.getFrom().getY() != event.getTo().getY() ||
-                event.getFrom().getZ() != event.getTo().getZ()) {
-                event.setCancelled(true);
-            }
-        } else {
-            // Remove blindness if they are authenticated (just in case it wasn't removed by command)
-            if (event.getPlayer().hasPotionEffect(PotionEffectType.BLINDNESS)) {
-                event.getPlayer().removePotionEffect(PotionEffectType.BLINDNESS);
+        restrict(player);
+
+        // Teleport to spawn to prevent floating in void/falling
+        plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            if (player.isOnline() && !authManager.isAuthenticated(player.getUniqueId())) {
+                player.teleport(player.getWorld().getSpawnLocation());
             }
-        }
+        }, 1L);
     }
 
     @EventHandler
-    public void onChat(AsyncPlayerChatEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            event.setCancelled(true);
+    public void onQuit(PlayerQuitEvent event) {
+        Player player = event.getPlayer();
+        if (restrictions.remove(player.getUniqueId())) {
+            unregisterIfIdle();
         }
+        authManager.endSession(player.getUniqueId());
     }
 
-    @EventHandler
-    public void onCommand(PlayerCommandPreprocessEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            String msg = event.getMessage().toLowerCase();
-            if (!msg.startsWith("/login") && !msg.startsWith("/register")) {
-                event.setCancelled(true);
-            }
+    private void restrict(Player player) {
+        restrictions.add(player.getUniqueId());
+        if (!restrictionsRegistered) {
+            plugin.getServer().getPluginManager().registerEvents(restrictions, plugin);
+            restrictionsRegistered = true;
+            plugin.debug("Restriction handlers registered");
         }
+        // Apply Blindness indefinitely (until login)
+        player.addPotionEffect(new PotionEffect(PotionEffectType.BLINDNESS, Integer.MAX_VALUE, 1, false, false));
     }
 
-    @EventHandler
-    public void onBlockBreak(BlockBreakEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            event.setCancelled(true);
+    private void unrestrict(UUID uuid) {
+        if (!restrictions.remove(uuid)) {
+            return;
         }
-    }
-
-    @EventHandler
-    public void onBlockPlace(BlockPlaceEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            event.setCancelled(true);
+        Player player = plugin.getServer().getPlayer(uuid);
+        if (player != null) {
+            player.removePotionEffect(PotionEffectType.BLINDNESS);
         }
+        unregisterIfIdle();
     }
 
-    @EventHandler
-    public void onInteract(PlayerInteractEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            event.setCancelled(true);
+    private void unregisterIfIdle() {
+        if (restrictionsRegistered && restrictions.isEmpty()) {
+            HandlerList.unregisterAll(restrictions);
+            restrictionsRegistered = false;
+            plugin.debug("Restriction handlers unregistered");
         }
     }
 
-    @EventHandler
-    public void onInventoryClick(InventoryClickEvent event) {
-        if (event.getWhoClicked() instanceof Player player) {
-            if (!authManager.isAuthenticated(player.getUniqueId())) {
-                event.setCancelled(true);
-            }
-        }
+    public RestrictionListener getRestrictions() {
+        return restrictions;
     }
 
-    @EventHandler
-    public void onEntityDamageByEntity(EntityDamageByEntityEvent event) {
-        if (event.getDamager() instanceof Player player) {
-            if (!authManager.isAuthenticated(player.getUniqueId())) {
-                event.setCancelled(true);
-            }
-        }
-        if (event.getEntity() instanceof Player player) {
-            if (!authManager.isAuthenticated(player.getUniqueId())) {
-                event.setCancelled(true);
-            }
-        }
+    private String getIp(Player player) {
+        return player.getAddress() != null ? player.getAddress().getAddress().getHostAddress() : null;
     }
 
-    @EventHandler
-    public void onPlayerDropItem(PlayerDropItemEvent event) {
-        if (!authManager.isAuthenticated(event.getPlayer().getUniqueId())) {
-            event.setCancelled(true);
-        }
+    private String getMessage(String path) {
+        String msg = plugin.getConfig().getString("messages." + path);
+        if (msg == null) return "";
+        String prefix = plugin.getConfig().getString("messages.prefix", "");
+        return ChatColor.translateAlternateColorCodes('&', prefix + msg);
     }
 }
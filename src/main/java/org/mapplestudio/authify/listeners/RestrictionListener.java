@@ -0,0 +1,127 @@
+package org.mapplestudio.authify.listeners;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerDropItemEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Blocks everything a player who hasn't logged in yet could do. Only registered while at least one
+ * such player is online (see {@link PlayerSecurityListener}), so logged-in players never pay for it.
+ */
+public class RestrictionListener implements Listener {
+    // Written on the main thread, read from the async chat thread too
+    private final Set<UUID> restricted = ConcurrentHashMap.newKeySet();
+
+    boolean add(UUID uuid) {
+        return restricted.add(uuid);
+    }
+
+    boolean remove(UUID uuid) {
+        return restricted.remove(uuid);
+    }
+
+    boolean isEmpty() {
+        return restricted.isEmpty();
+    }
+
+    public boolean isRestricted(UUID uuid) {
+        return restricted.contains(uuid);
+    }
+
+    public int getRestrictedCount() {
+        return restricted.size();
+    }
+
+    @EventHandler
+    public void onMove(PlayerMoveEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            // Prevent X/Y/Z movement, allow rotation
+            if (event.getFrom().getX() != event.getTo().getX() ||
+                event.getFrom().getY() != event.getTo().getY() ||
+                event.getFrom().getZ() != event.getTo().getZ()) {
+                event.setCancelled(true);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onChat(AsyncPlayerChatEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler
+    public void onCommand(PlayerCommandPreprocessEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            String msg = event.getMessage().toLowerCase();
+            if (!msg.startsWith("/login") && !msg.startsWith("/register")) {
+                event.setCancelled(true);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onBlockBreak(BlockBreakEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler
+    public void onBlockPlace(BlockPlaceEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler
+    public void onInteract(PlayerInteractEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler
+    public void onInventoryClick(InventoryClickEvent event) {
+        if (event.getWhoClicked() instanceof Player player) {
+            if (restricted.contains(player.getUniqueId())) {
+                event.setCancelled(true);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onEntityDamageByEntity(EntityDamageByEntityEvent event) {
+        if (event.getDamager() instanceof Player player) {
+            if (restricted.contains(player.getUniqueId())) {
+                event.setCancelled(true);
+            }
+        }
+        if (event.getEntity() instanceof Player player) {
+            if (restricted.contains(player.getUniqueId())) {
+                event.setCancelled(true);
+            }
+        }
+    }
+
+    @EventHandler
+    public void onPlayerDropItem(PlayerDropItemEvent event) {
+        if (restricted.contains(event.getPlayer().getUniqueId())) {
+            event.setCancelled(true);
+        }
+    }
+}
@@ -1,13 +1,36 @@
 package org.mapplestudio.authify.managers;
 
+import org.mapplestudio.authify.Authify;
+
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class AuthManager {
     private final Map<UUID, AuthSession> sessions = new ConcurrentHashMap<>();
     // Temporary map for login process before UUID is finalized or for connection handling
     private final Map<String, AuthSession> pendingSessions = new ConcurrentHashMap<>();
+    // Cracked players who logged in recently, allowed back in from the same IP without /login
+    private final SessionStore sessionStore;
+    private final long resumeGraceMillis;
+    private final long loginGrantMillis;
+    private volatile Consumer<UUID> loginListener = uuid -> { };
+
+    public AuthManager(Authify plugin, SessionStore sessionStore) {
+        this(sessionStore, plugin.getConfig().getLong("sessions.resume-minutes", 5) * 60_000L,
+                plugin.getConfig().getLong("sessions.max-hours", 12) * 3_600_000L);
+    }
+
+    /**
+     * @param resumeGraceMillis how long after leaving a player can come back without /login
+     * @param loginGrantMillis how long a login is honoured on other servers while the player is still online
+     */
+    public AuthManager(SessionStore sessionStore, long resumeGraceMillis, long loginGrantMillis) {
+        this.sessionStore = sessionStore;
+        this.resumeGraceMillis = Math.max(0, resumeGraceMillis);
+        this.loginGrantMillis = Math.max(0, loginGrantMillis);
+    }
 
     public AuthSession createSession(UUID uuid) {
         AuthSession session = new AuthSession(uuid);
@@ -15,6 +38,25 @@ public class AuthManager {
         return session;
     }
 
+    /**
+     * Creates a logged-in session and notifies the login listener. May be called from any thread.
+     * Cracked logins are also published to the session store.
+     */
+    public AuthSession login(UUID uuid, boolean premium, String ip) {
+        AuthSession session = createSession(uuid);
+        session.setLoggedIn(true);
+        session.setPremium(premium);
+        if (!premium && ip != null && loginGrantMillis > 0) {
+            sessionStore.publish(uuid, ip, System.currentTimeMillis() + loginGrantMillis);
+        }
+        loginListener.accept(uuid);
+        return session;
+    }
+
+    public void setLoginListener(Consumer<UUID> loginListener) {
+        this.loginListener = loginListener;
+    }
+
     public AuthSession getSession(UUID uuid) {
         return sessions.get(uuid);
     }
@@ -22,6 +64,41 @@ public class AuthManager {
     public void removeSession(UUID uuid) {
         sessions.remove(uuid);
     }
+
+    /**
+     * Drops the player's session when they leave. A logged-in cracked player may resume it
+     * from the same IP within the grace window.
+     */
+    public void endSession(UUID uuid) {
+        AuthSession session = sessions.remove(uuid);
+        if (session != null && session.isLoggedIn() && !session.isPremium()) {
+            sessionStore.release(uuid, System.currentTimeMillis() + resumeGraceMillis);
+        }
+    }
+
+    /**
+     * Logs the player straight back in if the session store has a grant for them from this IP:
+     * they left within the grace window, or they're logged in on another server.
+     */
+    public boolean tryResume(UUID uuid, String ip) {
+        if (ip == null) {
+            return false;
+        }
+        SessionStore.Grant grant = sessionStore.get(uuid);
+        if (grant == null || !grant.allows(ip, System.currentTimeMillis())) {
+            return false;
+        }
+        login(uuid, false, ip);
+        return true;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public SessionStore getSessionStore() {
+        return sessionStore;
+    }
     
     public boolean isAuthenticated(UUID uuid) {
         AuthSession session = sessions.get(uuid);
@@ -0,0 +1,109 @@
+package org.mapplestudio.authify.managers;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.scheduler.BukkitTask;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the background pools. Database I/O, remote HTTP, password hashing and the login handshake's
+ * RSA work each get their own bounded executor so one slow dependency can't starve the others.
+ */
+public class ExecutorManager {
+    private static final long REPORT_INTERVAL_TICKS = 20L * 60;
+
+    private final Authify plugin;
+    private final BoundedExecutor databaseExecutor;
+    private final BoundedExecutor httpExecutor;
+    private final BoundedExecutor hashingExecutor;
+    private final BoundedExecutor cryptoExecutor;
+    private final Map<String, Long> reportedRejections = new HashMap<>();
+    private BukkitTask reportTask;
+
+    public ExecutorManager(Authify plugin) {
+        this.plugin = plugin;
+        this.databaseExecutor = create("database", 8, 1024, false);
+        this.httpExecutor = create("http", 32, 1024, true);
+        // Hashing is CPU bound: size it to a share of the cores so a /login flood can't take them all
+        this.hashingExecutor = create("hashing", coreShare("hashing"), 64, false);
+        // Same for Encryption Response decryption, kept apart so /login hashing can't delay premium joins
+        this.cryptoExecutor = create("crypto", coreShare("crypto"), 1024, false);
+    }
+
+    private int coreShare(String name) {
+        double coreFraction = plugin.getConfig().getDouble("executors." + name + ".core-fraction", 0.5);
+        return (int) Math.max(1, Math.round(Runtime.getRuntime().availableProcessors() * coreFraction));
+    }
+
+    private BoundedExecutor create(String name, int defaultThreads, int defaultQueueSize, boolean defaultVirtual) {
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("executors." + name);
+        int threads = defaultThreads;
+        int queueSize = defaultQueueSize;
+        boolean virtual = defaultVirtual;
+        if (section != null) {
+            threads = Math.max(1, section.getInt("threads", defaultThreads));
+            queueSize = Math.max(1, section.getInt("queue-size", defaultQueueSize));
+            virtual = section.getBoolean("virtual-threads", defaultVirtual);
+        }
+        if (name.equals("hashing") || name.equals("crypto")) {
+            // Sized from core-fraction, and virtual threads buy nothing for CPU-bound work
+            threads = defaultThreads;
+            virtual = false;
+        }
+        plugin.debug("Executor '" + name + "': threads=" + threads + ", queue=" + queueSize + ", virtual=" + virtual);
+        return new BoundedExecutor(name, threads, queueSize, virtual);
+    }
+
+    public BoundedExecutor getDatabaseExecutor() {
+        return databaseExecutor;
+    }
+
+    public BoundedExecutor getHttpExecutor() {
+        return httpExecutor;
+    }
+
+    public BoundedExecutor getHashingExecutor() {
+        return hashingExecutor;
+    }
+
+    public BoundedExecutor getCryptoExecutor() {
+        return cryptoExecutor;
+    }
+
+    public List<BoundedExecutor> getExecutors() {
+        return List.of(databaseExecutor, httpExecutor, hashingExecutor, cryptoExecutor);
+    }
+
+    public void startReporting() {
+        reportTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::report,
+                REPORT_INTERVAL_TICKS, REPORT_INTERVAL_TICKS);
+    }
+
+    private void report() {
+        for (BoundedExecutor executor : getExecutors()) {
+            long rejected = executor.getRejectedCount();
+            long previous = reportedRejections.getOrDefault(executor.getName(), 0L);
+            if (rejected > previous) {
+                plugin.getLogger().warning("Executor '" + executor.getName() + "' rejected " + (rejected - previous)
+                        + " task(s) in the last minute (queue " + executor.getQueueDepth() + "/" + executor.getQueueCapacity() + ")");
+            }
+            reportedRejections.put(executor.getName(), rejected);
+            plugin.debug("Executor '" + executor.getName() + "': active=" + executor.getActiveCount()
+                    + ", queued=" + executor.getQueueDepth() + "/" + executor.getQueueCapacity()
+                    + ", completed=" + executor.getCompletedCount() + ", rejected=" + rejected);
+        }
+    }
+
+    public void shutdown() {
+        if (reportTask != null) {
+            reportTask.cancel();
+        }
+        for (BoundedExecutor executor : getExecutors()) {
+            executor.shutdown(5000);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.mapplestudio.authify.managers;
+
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.hashing.Argon2Hasher;
+import org.mapplestudio.authify.hashing.BCryptHasher;
+import org.mapplestudio.authify.hashing.HasherCalibrator;
+import org.mapplestudio.authify.hashing.PasswordHasher;
+import org.mapplestudio.authify.hashing.PasswordVerifier;
+import org.mapplestudio.authify.hashing.Pbkdf2Hasher;
+import org.mapplestudio.authify.hashing.SaltedSha256Verifier;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs password hashing and verification on the bounded hashing pool.
+ * Work beyond the pool's queue fails with a {@link java.util.concurrent.RejectedExecutionException},
+ * and each player may only have a few password operations in flight at once.
+ */
+public class HashingManager {
+    private final Authify plugin;
+    private final BoundedExecutor executor;
+    private final int maxInFlightPerPlayer;
+    private final long targetMillis;
+    private final List<PasswordVerifier> verifiers;
+    private final Map<UUID, Integer> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private volatile PasswordHasher hasher;
+
+    public HashingManager(Authify plugin, BoundedExecutor executor) {
+        this.plugin = plugin;
+        this.executor = executor;
+        this.maxInFlightPerPlayer = Math.max(1, plugin.getConfig().getInt("executors.hashing.max-in-flight-per-player", 1));
+        this.targetMillis = plugin.getConfig().getLong("password-hashing.target-millis", 250);
+
+        int memoryKib = plugin.getConfig().getInt("password-hashing.argon2.memory-kib", 19456);
+        int parallelism = plugin.getConfig().getInt("password-hashing.argon2.parallelism", 1);
+        BCryptHasher bcrypt = new BCryptHasher(12);
+        Pbkdf2Hasher pbkdf2 = new Pbkdf2Hasher(600_000);
+        Argon2Hasher argon2 = new Argon2Hasher(memoryKib, 3, parallelism);
+        // Stored hashes are verified by whichever algorithm produced them; SHA-256 only comes from imports
+        this.verifiers = List.of(bcrypt, pbkdf2, argon2, new SaltedSha256Verifier());
+
+        String algorithm = plugin.getConfig().getString("password-hashing.algorithm", "bcrypt").toLowerCase(Locale.ROOT);
+        PasswordHasher configured = switch (algorithm) {
+            case "pbkdf2" -> pbkdf2;
+            case "argon2", "argon2id" -> argon2;
+            default -> bcrypt;
+        };
+        // Config sections are named after the algorithm, except argon2id's
+        String section = configured == argon2 ? "argon2" : configured.getAlgorithm();
+        this.hasher = withConfiguredCost(configured, section);
+        if (plugin.getConfig().getInt("password-hashing.cost", 0) > 0) {
+            plugin.getLogger().warning("password-hashing.cost is no longer used; set password-hashing." + section + ".cost instead");
+        }
+    }
+
+    /**
+     * Applies {@code password-hashing.<section>.cost}, kept within the algorithm's safe range.
+     * Unset means the built-in default.
+     */
+    private PasswordHasher withConfiguredCost(PasswordHasher hasher, String section) {
+        int cost = plugin.getConfig().getInt("password-hashing." + section + ".cost", hasher.getCost());
+        int clamped = (int) HasherCalibrator.clamp(hasher, cost);
+        if (clamped != cost) {
+            plugin.getLogger().warning("password-hashing." + section + ".cost " + cost + " is outside "
+                    + hasher.getMinimumCost() + "-" + hasher.getMaximumCost() + ", using " + clamped);
+        }
+        return clamped == hasher.getCost() ? hasher : hasher.withCost(clamped);
+    }
+
+    /**
+     * Measures this machine and switches to the highest cost that fits the configured per-hash budget.
+     * Hashes made before calibration finishes use the configured cost and get upgraded on next login.
+     */
+    public void calibrate() {
+        if (targetMillis <= 0) {
+            plugin.getLogger().info("Password hashing: " + hasher.getAlgorithm() + " at fixed cost " + hasher.getCost());
+            return;
+        }
+        PasswordHasher uncalibrated = hasher;
+        executor.supply(() -> HasherCalibrator.calibrate(uncalibrated, targetMillis)).whenComplete((calibrated, ex) -> {
+            if (ex != null) {
+                plugin.getLogger().warning("Password hashing calibration failed, keeping " + uncalibrated.getAlgorithm()
+                        + " cost " + uncalibrated.getCost() + ": " + ex.getMessage());
+                return;
+            }
+            hasher = calibrated;
+            long millis = HasherCalibrator.measure(calibrated) / 1_000_000L;
+            plugin.getLogger().info("Password hashing calibrated: " + calibrated.getAlgorithm() + " cost " + calibrated.getCost()
+                    + " (~" + millis + "ms per hash, budget " + targetMillis + "ms)");
+            if (millis > targetMillis) {
+                plugin.getLogger().warning("This machine can't meet the " + targetMillis + "ms budget at the minimum safe cost");
+            }
+        });
+    }
+
+    /**
+     * Reserves a password-operation slot for the player.
+     * @return false if the player already has too many operations in flight.
+     */
+    public boolean tryBegin(UUID player) {
+        boolean[] acquired = {false};
+        inFlight.compute(player, (uuid, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxInFlightPerPlayer) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        if (!acquired[0]) {
+            throttled.increment();
+        }
+        return acquired[0];
+    }
+
+    public void end(UUID player) {
+        inFlight.computeIfPresent(player, (uuid, count) -> count <= 1 ? null : count - 1);
+    }
+
+    public CompletableFuture<String> hash(String password) {
+        PasswordHasher current = hasher;
+        return executor.supply(() -> current.hash(password.toCharArray()));
+    }
+
+    public CompletableFuture<Boolean> verify(String password, String hash) {
+        return executor.supply(() -> {
+            for (PasswordVerifier verifier : verifiers) {
+                if (verifier.supports(hash)) {
+                    return verifier.verify(password.toCharArray(), hash);
+                }
+            }
+            plugin.getLogger().warning("Stored password hash uses an unknown format");
+            return false;
+        });
+    }
+
+    /**
+     * @return true if some verifier understands the hash, i.e. a player could log in with it.
+     */
+    public boolean isKnownFormat(String hash) {
+        for (PasswordVerifier verifier : verifiers) {
+            if (verifier.supports(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the hash was made with a different algorithm, or at a lower cost than we'd use today.
+     */
+    public boolean needsRehash(String hash) {
+        PasswordHasher current = hasher;
+        return !current.supports(hash) || current.needsRehash(hash);
+    }
+
+    public PasswordHasher getHasher() {
+        return hasher;
+    }
+
+    public BoundedExecutor getExecutor() {
+        return executor;
+    }
+
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+}
@@ -0,0 +1,55 @@
+package org.mapplestudio.authify.managers;
+
+import org.mapplestudio.authify.utils.ExpiringCache;
+
+import java.util.UUID;
+
+/**
+ * Keeps grants in memory; only this server sees them.
+ */
+public class LocalSessionStore implements SessionStore {
+    private static final String OWNER = "local";
+
+    private final ExpiringCache<UUID, Grant> grants;
+
+    public LocalSessionStore(int maxEntries) {
+        this.grants = new ExpiringCache<>(maxEntries);
+    }
+
+    @Override
+    public void publish(UUID uuid, String ip, long expiresAt) {
+        put(uuid, new Grant(ip, expiresAt, OWNER));
+    }
+
+    @Override
+    public void release(UUID uuid, long expiresAt) {
+        Grant grant = grants.get(uuid);
+        if (grant != null) {
+            put(uuid, new Grant(grant.ip(), Math.min(grant.expiresAt(), expiresAt), OWNER));
+        }
+    }
+
+    private void put(UUID uuid, Grant grant) {
+        long ttl = grant.expiresAt() - System.currentTimeMillis();
+        if (ttl > 0) {
+            grants.put(uuid, grant, ttl);
+        } else {
+            grants.invalidate(uuid);
+        }
+    }
+
+    @Override
+    public Grant get(UUID uuid) {
+        return grants.get(uuid);
+    }
+
+    @Override
+    public int size() {
+        return grants.size();
+    }
+
+    @Override
+    public void close() {
+        grants.clear();
+    }
+}
@@ -0,0 +1,161 @@
+package org.mapplestudio.authify.managers;
+
+import org.mapplestudio.authify.Authify;
+
+import java.net.InetAddress;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many pre-login lookups run at once. Connections over the cap wait in a FIFO queue
+ * (with a per-IP limit so one address can't fill it); connections past the queue limit are rejected.
+ * Every admitted task must be followed by exactly one {@link #release()}.
+ */
+public class LoginAdmissionController {
+    public enum Result { ADMITTED, QUEUED, REJECTED }
+
+    /**
+     * A submitted lookup. Cancelling a queued one (e.g. because the client went away) frees its slot.
+     */
+    public static final class Ticket {
+        private final InetAddress address;
+        private final Runnable task;
+        private Result result;
+
+        private Ticket(InetAddress address, Runnable task) {
+            this.address = address;
+            this.task = task;
+        }
+
+        public Result getResult() {
+            return result;
+        }
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final int maxQueuedPerIp;
+    private final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+    private final Map<InetAddress, Integer> queuedPerIp = new HashMap<>();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    // Tasks may finish synchronously (cache hits) and release() from inside run(); trampoline
+    // those hand-offs instead of recursing once per queued connection
+    private final ThreadLocal<ArrayDeque<Ticket>> trampoline = new ThreadLocal<>();
+    private int active;
+    private int queued;
+
+    public LoginAdmissionController(Authify plugin) {
+        this(plugin.getConfig().getInt("login-queue.max-concurrent", 64),
+                plugin.getConfig().getInt("login-queue.max-queued", 2000),
+                plugin.getConfig().getInt("login-queue.max-queued-per-ip", 3));
+    }
+
+    public LoginAdmissionController(int maxConcurrent, int maxQueued, int maxQueuedPerIp) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxQueuedPerIp = Math.max(1, maxQueuedPerIp);
+    }
+
+    /**
+     * Runs the task now if there's capacity, otherwise queues it (or rejects it if the queue is full).
+     */
+    public Ticket submit(InetAddress address, Runnable task) {
+        Ticket ticket = new Ticket(address, task);
+        synchronized (this) {
+            if (active < maxConcurrent && queued == 0) {
+                active++;
+                ticket.result = Result.ADMITTED;
+            } else if (queued >= maxQueued || queuedPerIp.getOrDefault(address, 0) >= maxQueuedPerIp) {
+                rejected.increment();
+                ticket.result = Result.REJECTED;
+                return ticket;
+            } else {
+                queue.addLast(ticket);
+                queued++;
+                queuedPerIp.merge(address, 1, Integer::sum);
+                ticket.result = Result.QUEUED;
+                return ticket;
+            }
+        }
+        run(ticket);
+        return ticket;
+    }
+
+    /**
+     * Drops a ticket that is still waiting in the queue.
+     * @return false if it already started running (the caller then still owes a {@link #release()}).
+     */
+    public synchronized boolean cancel(Ticket ticket) {
+        if (ticket == null || !queue.remove(ticket)) {
+            return false;
+        }
+        dequeued(ticket);
+        return true;
+    }
+
+    /**
+     * Signals that an admitted lookup finished and hands its slot to the next queued one.
+     */
+    public void release() {
+        Ticket next;
+        synchronized (this) {
+            next = queue.pollFirst();
+            if (next == null) {
+                active = Math.max(0, active - 1);
+                return;
+            }
+            dequeued(next);
+            // The slot passes straight to the next ticket, so 'active' is unchanged
+        }
+        run(next);
+    }
+
+    private void run(Ticket ticket) {
+        admitted.increment();
+        ArrayDeque<Ticket> pending = trampoline.get();
+        if (pending != null) {
+            pending.addLast(ticket);
+            return;
+        }
+        pending = new ArrayDeque<>();
+        trampoline.set(pending);
+        try {
+            Ticket current = ticket;
+            while (current != null) {
+                try {
+                    current.task.run();
+                } catch (RuntimeException e) {
+                    // A task that blew up before going async will never release its slot itself
+                    release();
+                }
+                current = pending.pollFirst();
+            }
+        } finally {
+            trampoline.remove();
+        }
+    }
+
+    private void dequeued(Ticket ticket) {
+        queued--;
+        queuedPerIp.computeIfPresent(ticket.address, (ip, count) -> count <= 1 ? null : count - 1);
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queued;
+    }
+
+    public long getAdmittedCount() {
+        return admitted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,40 @@
+package org.mapplestudio.authify.managers;
+
+import java.util.UUID;
+
+/**
+ * Where logged-in cracked players are remembered, so they can skip /login when they come back from
+ * the same IP: after a quick reconnect, or, with a shared store, when the proxy moves them to
+ * another server.
+ */
+public interface SessionStore {
+    /**
+     * @param owner the store instance (server) that last logged the player in
+     */
+    record Grant(String ip, long expiresAt, String owner) {
+        public boolean allows(String ip, long now) {
+            return expiresAt > now && this.ip.equals(ip);
+        }
+    }
+
+    /**
+     * Records a login on this server, honoured until {@code expiresAt}.
+     */
+    void publish(UUID uuid, String ip, long expiresAt);
+
+    /**
+     * Shortens the player's grant when they leave this server, unless another server has logged
+     * them in since (they were switched, not disconnected).
+     */
+    void release(UUID uuid, long expiresAt);
+
+    /**
+     * Never blocks. A grant published by another server may show up a little late.
+     * @return the player's grant, or null
+     */
+    Grant get(UUID uuid);
+
+    int size();
+
+    void close();
+}
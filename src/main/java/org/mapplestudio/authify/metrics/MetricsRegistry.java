@@ -0,0 +1,69 @@
+package org.mapplestudio.authify.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Named latency histograms, counters and gauges. Components grab their metrics once (usually in a
+ * constructor) and update them directly; the registry itself is only touched when registering and
+ * when exporting.
+ */
+public class MetricsRegistry {
+    public enum Type { COUNTER, GAUGE }
+
+    public record Sampled(String name, String help, Type type, LongSupplier value) {
+    }
+
+    public record Histogram(String name, String help, LatencyHistogram histogram) {
+    }
+
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final Map<String, Sampled> sampled = new LinkedHashMap<>();
+
+    /**
+     * @param name snake_case, ending in {@code _seconds}
+     */
+    public synchronized LatencyHistogram histogram(String name, String help) {
+        return histograms.computeIfAbsent(name, key -> new Histogram(key, help, new LatencyHistogram())).histogram();
+    }
+
+    public synchronized LongAdder counter(String name, String help) {
+        Sampled existing = sampled.get(name);
+        if (existing != null && existing.value() instanceof AdderSupplier adder) {
+            return adder.adder;
+        }
+        LongAdder adder = new LongAdder();
+        sampled.put(name, new Sampled(name, help, Type.COUNTER, new AdderSupplier(adder)));
+        return adder;
+    }
+
+    /**
+     * Exposes a count some component already keeps (it must only ever go up).
+     */
+    public synchronized void counter(String name, String help, LongSupplier value) {
+        sampled.put(name, new Sampled(name, help, Type.COUNTER, value));
+    }
+
+    public synchronized void gauge(String name, String help, LongSupplier value) {
+        sampled.put(name, new Sampled(name, help, Type.GAUGE, value));
+    }
+
+    public synchronized List<Histogram> getHistograms() {
+        return new ArrayList<>(histograms.values());
+    }
+
+    public synchronized List<Sampled> getSampled() {
+        return new ArrayList<>(sampled.values());
+    }
+
+    private record AdderSupplier(LongAdder adder) implements LongSupplier {
+        @Override
+        public long getAsLong() {
+            return adder.sum();
+        }
+    }
+}
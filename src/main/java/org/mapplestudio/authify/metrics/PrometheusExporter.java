@@ -0,0 +1,111 @@
+package org.mapplestudio.authify.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.scheduler.BukkitTask;
+import org.mapplestudio.authify.Authify;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Publishes the registry in the Prometheus text format, either as a file rewritten on an interval
+ * (for node_exporter's textfile collector) or over HTTP on the loopback interface only.
+ */
+public class PrometheusExporter {
+    private static final String PREFIX = "authify_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Authify plugin;
+    private final MetricsRegistry registry;
+    private BukkitTask fileTask;
+    private HttpServer httpServer;
+
+    public PrometheusExporter(Authify plugin, MetricsRegistry registry) {
+        this.plugin = plugin;
+        this.registry = registry;
+    }
+
+    public void start() {
+        String file = plugin.getConfig().getString("metrics.file", "");
+        if (file != null && !file.isBlank()) {
+            Path path = plugin.getDataFolder().toPath().resolve(file);
+            long intervalTicks = Math.max(1, plugin.getConfig().getLong("metrics.file-interval-seconds", 15)) * 20L;
+            fileTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> writeFile(path),
+                    intervalTicks, intervalTicks);
+            plugin.getLogger().info("Writing metrics to " + path);
+        }
+
+        int port = plugin.getConfig().getInt("metrics.http-port", 0);
+        if (port > 0) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = render().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                httpServer.start();
+                plugin.getLogger().info("Serving metrics on http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeFile(Path path) {
+        try {
+            // Write then rename so scrapers never see a half-written file
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(temp, render(), StandardCharsets.UTF_8);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            plugin.debug("Could not write metrics file: " + e.getMessage());
+        }
+    }
+
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        for (MetricsRegistry.Histogram entry : registry.getHistograms()) {
+            String name = PREFIX + entry.name();
+            LatencyHistogram.Snapshot snapshot = entry.histogram().snapshot();
+            out.append("# HELP ").append(name).append(' ').append(entry.help()).append('\n');
+            out.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(snapshot.getValueAtQuantile(quantile))).append('\n');
+            }
+            out.append(name).append("_sum ").append(seconds(snapshot.getSumMicros())).append('\n');
+            out.append(name).append("_count ").append(snapshot.getCount()).append('\n');
+        }
+        for (MetricsRegistry.Sampled entry : registry.getSampled()) {
+            String name = PREFIX + entry.name();
+            out.append("# HELP ").append(name).append(' ').append(entry.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(entry.type().name().toLowerCase(Locale.ROOT)).append('\n');
+            out.append(name).append(' ').append(entry.value().getAsLong()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+
+    public void stop() {
+        if (fileTask != null) {
+            fileTask.cancel();
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+}
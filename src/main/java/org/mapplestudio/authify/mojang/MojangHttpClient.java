@@ -0,0 +1,47 @@
+package org.mapplestudio.authify.mojang;
+
+import org.mapplestudio.authify.Authify;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shared non-blocking HTTP client for the Mojang endpoints. One instance keeps its connections
+ * (HTTP/2 where the server supports it) alive across lookups instead of reconnecting every time.
+ */
+public class MojangHttpClient {
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    public MojangHttpClient(Authify plugin) {
+        this(plugin.getConfig().getInt("mojang.connect-timeout-ms", 3000),
+                plugin.getConfig().getInt("mojang.timeout-ms", 5000));
+    }
+
+    public MojangHttpClient(int connectTimeoutMillis, int requestTimeoutMillis) {
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> get(URI uri, HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .header("User-Agent", "Authify")
+                .GET()
+                .build();
+        return client.sendAsync(request, bodyHandler);
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+}
@@ -0,0 +1,189 @@
+package org.mapplestudio.authify.mojang;
+
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.utils.CircuitBreaker;
+import org.mapplestudio.authify.utils.ExpiringCache;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Answers "does this username belong to a Mojang account?".
+ * Concurrent lookups for the same name share one request, answers are cached (found and
+ * not-found with separate TTLs) and a 429 response pauses all lookups for the Retry-After period.
+ * Requests go through a circuit breaker, so while the API is down lookups don't wait for it.
+ * Lookups that can't be answered (errors, rate limit, open breaker) fall back to the last answer
+ * seen for the name, kept much longer than the cache TTLs, or else resolve to {@code false}.
+ */
+public class MojangProfileChecker {
+    private enum Lookup { FOUND, NOT_FOUND, UNKNOWN }
+
+    private final Logger logger;
+    private final MojangHttpClient httpClient;
+    private final String apiUrl;
+    private final long positiveTtlMillis;
+    private final long negativeTtlMillis;
+    private final long defaultBackoffMillis;
+    private final ExpiringCache<String, Boolean> cache;
+    // Only read when Mojang can't be asked
+    private final ExpiringCache<String, Boolean> lastKnown;
+    private final long lastKnownTtlMillis;
+    private final CircuitBreaker breaker;
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private volatile long backoffUntil;
+
+    public MojangProfileChecker(Authify plugin, MojangHttpClient httpClient) {
+        this(plugin.getLogger(), httpClient,
+                plugin.getConfig().getString("mojang.api-url", "https://api.mojang.com/users/profiles/minecraft/"),
+                plugin.getConfig().getInt("mojang.cache.max-size", 10000),
+                plugin.getConfig().getLong("mojang.cache.positive-ttl-seconds", 3600) * 1000L,
+                plugin.getConfig().getLong("mojang.cache.negative-ttl-seconds", 300) * 1000L,
+                plugin.getConfig().getLong("mojang.rate-limit-backoff-seconds", 60) * 1000L,
+                plugin.getConfig().getLong("mojang.cache.fallback-ttl-hours", 168) * 3_600_000L,
+                new CircuitBreaker(plugin, "profile API"));
+    }
+
+    /**
+     * @param lastKnownTtlMillis how long an answer may still be used as a fallback while Mojang can't be asked
+     */
+    public MojangProfileChecker(Logger logger, MojangHttpClient httpClient, String apiUrl,
+                                int cacheSize, long positiveTtlMillis, long negativeTtlMillis, long defaultBackoffMillis,
+                                long lastKnownTtlMillis, CircuitBreaker breaker) {
+        this.logger = logger;
+        this.httpClient = httpClient;
+        this.apiUrl = apiUrl.endsWith("/") ? apiUrl : apiUrl + "/";
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.defaultBackoffMillis = defaultBackoffMillis;
+        this.cache = new ExpiringCache<>(cacheSize);
+        this.lastKnown = new ExpiringCache<>(cacheSize);
+        this.lastKnownTtlMillis = lastKnownTtlMillis;
+        this.breaker = breaker;
+    }
+
+    public CompletableFuture<Boolean> hasProfile(String username) {
+        String key = username.toLowerCase(Locale.ROOT);
+        Boolean cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Boolean> created = new CompletableFuture<>();
+        CompletableFuture<Boolean> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        fetch(username).thenAccept(lookup -> {
+            boolean found = lookup == Lookup.FOUND;
+            if (lookup == Lookup.UNKNOWN) {
+                Boolean previous = lastKnown.get(key);
+                if (previous != null) {
+                    fallbacks.increment();
+                    found = previous;
+                }
+            } else {
+                cache.put(key, found, found ? positiveTtlMillis : negativeTtlMillis);
+                lastKnown.put(key, found, lastKnownTtlMillis);
+            }
+            inFlight.remove(key, created);
+            created.complete(found);
+        });
+        return created;
+    }
+
+    private CompletableFuture<Lookup> fetch(String username) {
+        if (System.currentTimeMillis() < backoffUntil) {
+            return CompletableFuture.completedFuture(Lookup.UNKNOWN);
+        }
+        CircuitBreaker.Call call = breaker.tryAcquire();
+        if (call == null) {
+            return CompletableFuture.completedFuture(Lookup.UNKNOWN);
+        }
+        requests.increment();
+        URI uri = URI.create(apiUrl + URLEncoder.encode(username, StandardCharsets.UTF_8));
+        return httpClient.get(uri, HttpResponse.BodyHandlers.discarding()).handle((response, ex) -> {
+            if (ex != null) {
+                call.failure();
+                logger.warning("Failed to check Mojang API for " + username + ": " + ex.getMessage());
+                return Lookup.UNKNOWN;
+            }
+            int responseCode = response.statusCode();
+            // A 429 is about our request rate, not the API's health; the backoff below handles it
+            if (responseCode >= 500) {
+                call.failure();
+            } else {
+                call.success();
+            }
+            if (responseCode == 200) {
+                return Lookup.FOUND;
+            }
+            if (responseCode == 204 || responseCode == 404) {
+                return Lookup.NOT_FOUND;
+            }
+            if (responseCode == 429) {
+                long backoff = parseRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+                backoffUntil = System.currentTimeMillis() + backoff;
+                rateLimited.increment();
+                logger.warning("Mojang API rate limit hit, pausing profile lookups for " + (backoff / 1000) + "s");
+            }
+            return Lookup.UNKNOWN;
+        });
+    }
+
+    private long parseRetryAfter(String header) {
+        if (header != null) {
+            try {
+                return Math.max(1, Long.parseLong(header.trim())) * 1000L;
+            } catch (NumberFormatException ignored) {
+                // HTTP-date form, fall back to the default
+            }
+        }
+        return defaultBackoffMillis;
+    }
+
+    public boolean isBackingOff() {
+        return System.currentTimeMillis() < backoffUntil;
+    }
+
+    public ExpiringCache<String, Boolean> getCache() {
+        return cache;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimited.sum();
+    }
+
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+}
@@ -0,0 +1,167 @@
+package org.mapplestudio.authify.mojang;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.mapplestudio.authify.Authify;
+import org.mapplestudio.authify.utils.BoundedExecutor;
+import org.mapplestudio.authify.utils.CircuitBreaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Verifies premium logins against the sessionserver {@code hasJoined} endpoint. Calls go through a
+ * circuit breaker; while it is open, verification fails immediately instead of timing out.
+ */
+public class MojangSessionService {
+    /**
+     * The authenticated account, with its signed properties (skin textures).
+     */
+    public record Profile(UUID uuid, String name, List<Property> properties) {
+    }
+
+    public record Property(String name, String value, String signature) {
+    }
+
+    private final Logger logger;
+    private final MojangHttpClient httpClient;
+    private final BoundedExecutor executor;
+    private final String sessionUrl;
+    private final CircuitBreaker breaker;
+
+    public MojangSessionService(Authify plugin, MojangHttpClient httpClient, BoundedExecutor executor) {
+        this(plugin.getLogger(), httpClient, executor,
+                plugin.getConfig().getString("mojang.session-url", "https://sessionserver.mojang.com/session/minecraft/hasJoined"),
+                new CircuitBreaker(plugin, "session server"));
+    }
+
+    public MojangSessionService(Logger logger, MojangHttpClient httpClient, BoundedExecutor executor, String sessionUrl,
+                                CircuitBreaker breaker) {
+        this.logger = logger;
+        this.httpClient = httpClient;
+        this.executor = executor;
+        this.sessionUrl = sessionUrl;
+        this.breaker = breaker;
+    }
+
+    /**
+     * @return the authenticated profile, or null if the player did not join with this server id
+     * (or the sessionserver could not be reached in time, or the breaker is open).
+     */
+    public CompletableFuture<Profile> hasJoined(String username, String serverId) {
+        CircuitBreaker.Call call = breaker.tryAcquire();
+        if (call == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        URI uri = URI.create(sessionUrl
+                + "?username=" + URLEncoder.encode(username, StandardCharsets.UTF_8)
+                + "&serverId=" + URLEncoder.encode(serverId, StandardCharsets.UTF_8));
+
+        // The body is read into memory by the client's own non-blocking I/O, so a slow sessionserver
+        // holds no worker thread; parsing only starts once it has fully arrived
+        CompletableFuture<HttpResponse<byte[]>> request = httpClient.get(uri, HttpResponse.BodyHandlers.ofByteArray());
+        return request
+                .thenCompose(response -> executor.supply(() -> readProfile(response)))
+                // The request timeout only covers the headers, bound the body as well
+                .orTimeout(httpClient.getRequestTimeout().toMillis() * 2, TimeUnit.MILLISECONDS)
+                .whenComplete((profile, ex) -> {
+                    if (ex != null) {
+                        // Abort the exchange rather than keep receiving a body nobody waits for
+                        request.cancel(true);
+                        call.failure();
+                    } else {
+                        call.success();
+                    }
+                })
+                .exceptionally(ex -> {
+                    logger.warning("Session verification for " + username + " failed: " + ex.getMessage());
+                    return null;
+                });
+    }
+
+    private Profile readProfile(HttpResponse<byte[]> response) {
+        if (response.statusCode() >= 500) {
+            throw new IllegalStateException("sessionserver answered " + response.statusCode());
+        }
+        if (response.statusCode() != 200) {
+            // 204: the client never called /join with this server id
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(response.body()), StandardCharsets.UTF_8))) {
+            String id = null;
+            String name = null;
+            List<Property> properties = new ArrayList<>();
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id" -> id = reader.nextString();
+                    case "name" -> name = reader.nextString();
+                    case "properties" -> readProperties(reader, properties);
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (id == null || name == null) {
+                return null;
+            }
+            UUID uuid = UUID.fromString(id.replaceFirst(
+                    "(\\w{8})(\\w{4})(\\w{4})(\\w{4})(\\w{12})", "$1-$2-$3-$4-$5"));
+            return new Profile(uuid, name, List.copyOf(properties));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return true while the breaker refuses calls, so a premium login can't be verified right now
+     */
+    public boolean isUnavailable() {
+        return breaker.isOpen();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    private void readProperties(JsonReader reader, List<Property> properties) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String pName = null;
+            String pValue = null;
+            String pSignature = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "name" -> pName = reader.nextString();
+                    case "value" -> pValue = reader.nextString();
+                    case "signature" -> pSignature = reader.nextString();
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (pName != null && pValue != null) {
+                properties.add(new Property(pName, pValue, pSignature));
+            }
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,107 @@
+package org.mapplestudio.authify.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Fixed-size executor with a bounded queue. Tasks submitted while the queue is full
+ * are rejected (and counted) instead of piling up behind slow work.
+ */
+public class BoundedExecutor implements Executor {
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final boolean virtualThreads;
+    private final int queueCapacity;
+
+    public BoundedExecutor(String name, int threads, int queueSize, boolean virtualThreads) {
+        this.name = name;
+        this.virtualThreads = virtualThreads;
+        this.queueCapacity = queueSize;
+        ThreadFactory factory = virtualThreads
+                ? Thread.ofVirtual().name("authify-" + name + "-", 0).factory()
+                : Thread.ofPlatform().name("authify-" + name + "-", 0).daemon(true).factory();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), factory, (task, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Authify " + name + " executor is saturated");
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Like {@link CompletableFuture#supplyAsync(Supplier, Executor)}, but a rejected
+     * submission fails the returned future instead of throwing on the caller's thread.
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, this);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<Void> run(Runnable runnable) {
+        try {
+            return CompletableFuture.runAsync(runnable, this);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public void shutdown(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.mapplestudio.authify.utils;
+
+import org.mapplestudio.authify.Authify;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Stops calling a remote service that is failing or too slow, so callers get an immediate answer
+ * (and can fall back to something cached) instead of each waiting out a timeout.
+ * <p>
+ * Closed: calls go through, and the outcome of the last {@code windowSize} is kept. Once at least
+ * {@code minimumCalls} are recorded and the share of failed or of slow calls reaches its threshold,
+ * the breaker opens. Open: every call is refused for {@code openMillis}. Half-open: the next
+ * {@code probes} calls go through as probes; if they all succeed quickly the breaker closes,
+ * otherwise it opens again.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    /**
+     * One permitted call. Report its outcome once; later reports are ignored, as are reports for
+     * calls started before the breaker last changed state.
+     */
+    public final class Call {
+        private final long started = System.nanoTime();
+        private final long generation;
+        private boolean done;
+
+        private Call(long generation) {
+            this.generation = generation;
+        }
+
+        public void success() {
+            record(this, false);
+        }
+
+        public void failure() {
+            record(this, true);
+        }
+    }
+
+    private final String name;
+    private final Logger logger;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final double slowCallRateThreshold;
+    private final long openNanos;
+    private final int probes;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    // Guarded by this
+    private final byte[] window;
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slowCalls;
+    private long generation;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+    private volatile State state = State.CLOSED;
+
+    public CircuitBreaker(Authify plugin, String name) {
+        this(name, plugin.getLogger(),
+                plugin.getConfig().getInt("mojang.circuit-breaker.window-size", 50),
+                plugin.getConfig().getInt("mojang.circuit-breaker.minimum-calls", 10),
+                plugin.getConfig().getDouble("mojang.circuit-breaker.failure-rate-percent", 50) / 100,
+                plugin.getConfig().getLong("mojang.circuit-breaker.slow-call-ms", 2000),
+                plugin.getConfig().getDouble("mojang.circuit-breaker.slow-call-rate-percent", 80) / 100,
+                plugin.getConfig().getLong("mojang.circuit-breaker.open-seconds", 30) * 1000L,
+                plugin.getConfig().getInt("mojang.circuit-breaker.half-open-probes", 3));
+    }
+
+    /**
+     * @param failureRateThreshold  e.g. 0.5 to open once half the recorded calls failed
+     * @param slowCallRateThreshold e.g. 0.8 to open once 80% took at least {@code slowCallMillis}
+     */
+    public CircuitBreaker(String name, Logger logger, int windowSize, int minimumCalls, double failureRateThreshold,
+                          long slowCallMillis, double slowCallRateThreshold, long openMillis, int probes) {
+        this.name = name;
+        this.logger = logger;
+        this.window = new byte[Math.max(1, windowSize)];
+        this.minimumCalls = Math.max(1, Math.min(window.length, minimumCalls));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, openMillis));
+        this.probes = Math.max(1, probes);
+    }
+
+    /**
+     * @return a permit to make the call, or null if the breaker refuses it
+     */
+    public synchronized Call tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected.increment();
+                return null;
+            }
+            transition(State.HALF_OPEN);
+            logger.info("Mojang " + name + " circuit half-open, sending " + probes + " probe request(s)");
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= probes) {
+                rejected.increment();
+                return null;
+            }
+            probesStarted++;
+        }
+        return new Call(generation);
+    }
+
+    private synchronized void record(Call call, boolean failed) {
+        if (call.done || call.generation != generation) {
+            return;
+        }
+        call.done = true;
+        boolean slow = System.nanoTime() - call.started >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                open("a probe request " + (failed ? "failed" : "was slow"));
+            } else if (++probesSucceeded >= probes) {
+                transition(State.CLOSED);
+                logger.info("Mojang " + name + " circuit closed, the service is answering again");
+            }
+            return;
+        }
+
+        if (recorded == window.length) {
+            byte evicted = window[next];
+            failures -= evicted & FAILED;
+            slowCalls -= (evicted & SLOW) >> 1;
+        } else {
+            recorded++;
+        }
+        window[next] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+        failures += failed ? 1 : 0;
+        slowCalls += slow ? 1 : 0;
+        next = (next + 1) % window.length;
+
+        if (recorded >= minimumCalls) {
+            double failureRate = (double) failures / recorded;
+            double slowRate = (double) slowCalls / recorded;
+            if (failureRate >= failureRateThreshold || slowRate >= slowCallRateThreshold) {
+                open(String.format(Locale.ROOT, "%.0f%% of the last %d requests failed and %.0f%% were slow",
+                        failureRate * 100, recorded, slowRate * 100));
+            }
+        }
+    }
+
+    private void open(String reason) {
+        transition(State.OPEN);
+        openedAt = System.nanoTime();
+        opened.increment();
+        logger.warning("ALERT: Mojang " + name + " circuit opened (" + reason + "); requests are skipped for "
+                + TimeUnit.NANOSECONDS.toSeconds(openNanos) + "s and answered from cache where possible");
+    }
+
+    private void transition(State to) {
+        state = to;
+        generation++;
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slowCalls = 0;
+        probesStarted = 0;
+        probesSucceeded = 0;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true while calls are refused outright (open and not yet due for a probe)
+     */
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+}
@@ -1,55 +0,0 @@
-package org.mapplestudio.authify.utils;
-
-import java.math.BigInteger;
-import java.security.*;
-import java.security.spec.X509EncodedKeySpec;
-import java.util.Arrays;
-import java.util.Random;
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
-
-public class EncryptionUtil {
-    private static final KeyPair keyPair;
-    private static final Random random = new Random();
-
-    static {
-        try {
-            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-            generator.initialize(1024);
-            keyPair = generator.generateKeyPair();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Failed to generate RSA keys", e);
-        }
-    }
-
-    public static KeyPair getKeyPair() {
-        return keyPair;
-    }
-
-    public static byte[] generateVerifyToken() {
-        byte[] token = new byte[4];
-        random.nextBytes(token);
-        return token;
-    }
-
-    public static SecretKey decryptSharedKey(PrivateKey privateKey, byte[] sharedKey) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
-        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-        return new SecretKeySpec(cipher.doFinal(sharedKey), "AES");
-    }
-
-    public static byte[] decryptData(PrivateKey privateKey, byte[] data) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA");
-        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-        return cipher.doFinal(data);
-    }
-
-    public static String generateServerId(String serverId, PublicKey publicKey, SecretKey secretKey) throws Exception {
-        MessageDigest digest = MessageDigest.getInstance("SHA-1");
-        digest.update(serverId.getBytes("ISO_8859_1"));
-        digest.update(secretKey.getEncoded());
-        digest.update(publicKey.getEncoded());
-        return new BigInteger(digest.digest()).toString(16);
-    }
-}